@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import model.Cart;
+import model.Product;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cart mutation and aggregate costs at different cart sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CartBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private Product[] products;
+    private Cart cart;
+    private Product extra;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        products = new Product[size];
+        for (int i = 0; i < size; i++) {
+            products[i] = new Product("ID" + i, "Product" + i, 100 + i % 100, 100);
+        }
+        extra = new Product("EXTRA", "Extra product", 999, 100);
+        cart = new Cart();
+        for (Product p : products) {
+            cart.addItem(p, 1);
+        }
+    }
+
+    /** Adds one new line to a cart already holding {@code size} lines, then removes it again. */
+    @Benchmark
+    public Cart addRemoveOne() {
+        cart.addItem(extra, 1);
+        cart.removeItem(extra.getId());
+        return cart;
+    }
+
+    /** Adds to a line that already exists (the quantity-bump path). */
+    @Benchmark
+    public Cart addExisting() {
+        cart.addItem(products[size / 2], 1);
+        return cart;
+    }
+
+    @Benchmark
+    public long total() {
+        return cart.getTotalCents();
+    }
+
+    /** Builds a full cart from empty and tears it down again; reported per cart, not per item. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public Cart fillAndEmpty() {
+        Cart c = new Cart();
+        for (Product p : products) {
+            c.addItem(p, 1);
+        }
+        for (Product p : products) {
+            c.removeItem(p.getId());
+        }
+        return c;
+    }
+}
@@ -0,0 +1,109 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import model.Cart;
+import model.Order;
+import model.OrderLogConverter;
+import model.OrderLogFormat;
+import model.OrderManager;
+import model.Product;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Order history load, save and per-user lookup over a log of {@code size}
+ * orders spread across {@link #USERS} users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderManagerBenchmark {
+    static final int USERS = 100;
+    static final int ITEMS_PER_ORDER = 3;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"TEXT", "BINARY"})
+    public OrderLogFormat format;
+
+    private Path dir;
+    private Path ordersFile;
+    private OrderManager orderManager;
+    private Order sampleOrder;
+
+    @Setup(Level.Trial)
+    public void writeOrders() throws IOException {
+        dir = BenchFiles.createTempDir("bench-orders");
+        Path textFile = dir.resolve("orders.txt");
+        Product[] products = new Product[50];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new Product("P" + i, "Product " + i, 100 + 100L * i, 100);
+        }
+        try (BufferedWriter bw = Files.newBufferedWriter(textFile)) {
+            for (int i = 0; i < size; i++) {
+                Order order = newOrder("user" + (i % USERS), products, i);
+                order.setOrderId("ORD" + i);
+                bw.write(order.toString() + "\n\n");
+            }
+        }
+        sampleOrder = newOrder("user0", products, 0);
+        if (format == OrderLogFormat.BINARY) {
+            ordersFile = dir.resolve("orders.bin");
+            OrderLogConverter.textToBinary(textFile, ordersFile);
+        } else {
+            ordersFile = textFile;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        orderManager = new OrderManager(ordersFile.toString(), format);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        orderManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    private static Order newOrder(String username, Product[] products, int seed) {
+        Cart cart = new Cart();
+        for (int j = 0; j < ITEMS_PER_ORDER; j++) {
+            cart.addItem(products[(seed + j) % products.length], 1 + j);
+        }
+        return new Order(username, cart, cart.getTotalCents());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public OrderManager loadOrders() {
+        return new OrderManager(ordersFile.toString(), format);
+    }
+
+    @Benchmark
+    public OrderManager saveOrder() {
+        // Durable save: waits for the group commit that carries this order
+        orderManager.saveOrder(sampleOrder).join();
+        return orderManager;
+    }
+
+    @Benchmark
+    public List<Order> getUserOrders() {
+        return orderManager.getUserOrders("user0");
+    }
+}
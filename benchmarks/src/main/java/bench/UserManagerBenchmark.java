@@ -0,0 +1,77 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import model.User;
+import model.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Registration and login against a user store that already holds
+ * {@code size} users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserManagerBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private Path dir;
+    private Path usersFile;
+    private UserManager userManager;
+    private int nextUser;
+
+    @Setup(Level.Trial)
+    public void writeUsers() throws IOException {
+        dir = BenchFiles.createTempDir("bench-users");
+        usersFile = dir.resolve("users.txt");
+        try (BufferedWriter bw = Files.newBufferedWriter(usersFile)) {
+            for (int i = 0; i < size; i++) {
+                bw.write(new User("user" + i, "password" + i).toString());
+                bw.write('\n');
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        userManager = new UserManager(usersFile.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        BenchFiles.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public User login() {
+        // Worst case for a linear scan: the most recently registered user
+        return userManager.loginUser("user" + (size - 1), "password" + (size - 1));
+    }
+
+    @Benchmark
+    public boolean userExistsMiss() {
+        return userManager.userExists("nobody");
+    }
+
+    @Benchmark
+    public boolean register() {
+        int i = nextUser++;
+        return userManager.registerUser("bench" + i, "password" + i);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public UserManager loadUsers() {
+        return new UserManager(usersFile.toString());
+    }
+}
@@ -1,16 +1,10 @@
 import javax.swing.SwingUtilities;
+import metrics.MetricsRegistry;
 import ui.LoginFrame;
 
 public class App {
     public static void main(String[] args) {
-        // Performance test
-        model.Cart.performanceTest(100);
-        model.Cart.performanceTest(150);
-        
-        // User performance test
-        model.UserManager.performanceTest(100);
-        model.UserManager.performanceTest(150);
-        
+        MetricsRegistry.getDefault().startReporting();
         SwingUtilities.invokeLater(() -> {
             LoginFrame frame = new LoginFrame();
             frame.setVisible(true);
@@ -0,0 +1,8 @@
+package logging;
+
+/** Log levels, least to most severe. */
+public enum Level {
+    DEBUG, INFO, WARN, ERROR,
+    /** As a threshold: log nothing. */
+    OFF
+}
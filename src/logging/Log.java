@@ -0,0 +1,156 @@
+package logging;
+
+/**
+ * A named logger writing through one shared asynchronous ring buffer.
+ *
+ * Calling threads only check the level and copy the message template and
+ * its arguments into a ring slot; a single background thread formats the
+ * line and writes it out, DEBUG and INFO to standard output and WARN and
+ * ERROR to standard error. A call below the level costs one field read, so
+ * hot paths can log freely; pass values as arguments rather than building
+ * the message string, which would be paid for even when disabled. Up to
+ * three arguments allocate nothing unless the level is enabled (primitive
+ * arguments are still boxed).
+ *
+ * Templates use {@code {}} placeholders, filled in order. A Throwable as
+ * the last argument, beyond the placeholders, has its stack trace written
+ * after the line.
+ *
+ * The level is {@code -Dlog.level=DEBUG|INFO|WARN|ERROR|OFF} (INFO by
+ * default) and can be changed at runtime with {@link #setLevel(Level)}.
+ */
+public final class Log {
+    private static volatile int threshold = parseLevel(System.getProperty("log.level")).ordinal();
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(Class<?> type) {
+        return new Log(type.getSimpleName());
+    }
+
+    public static Log get(String name) {
+        return new Log(name);
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public static Level getLevel() {
+        return Level.values()[threshold];
+    }
+
+    /** Waits until everything logged so far has been written. */
+    public static void flush() {
+        LogRing.get().flush();
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public void debug(String message) {
+        if (Level.DEBUG.ordinal() >= threshold) LogRing.get().publish(Level.DEBUG, name, message, 0, null, null, null);
+    }
+
+    public void debug(String format, Object arg) {
+        if (Level.DEBUG.ordinal() >= threshold) LogRing.get().publish(Level.DEBUG, name, format, 1, arg, null, null);
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (Level.DEBUG.ordinal() >= threshold) LogRing.get().publish(Level.DEBUG, name, format, 2, arg1, arg2, null);
+    }
+
+    public void debug(String format, Object arg1, Object arg2, Object arg3) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            LogRing.get().publish(Level.DEBUG, name, format, 3, null, null, new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    public void debug(String format, Object... args) {
+        if (Level.DEBUG.ordinal() >= threshold) LogRing.get().publish(Level.DEBUG, name, format, args.length, null, null, args);
+    }
+
+    public void info(String message) {
+        if (Level.INFO.ordinal() >= threshold) LogRing.get().publish(Level.INFO, name, message, 0, null, null, null);
+    }
+
+    public void info(String format, Object arg) {
+        if (Level.INFO.ordinal() >= threshold) LogRing.get().publish(Level.INFO, name, format, 1, arg, null, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (Level.INFO.ordinal() >= threshold) LogRing.get().publish(Level.INFO, name, format, 2, arg1, arg2, null);
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (Level.INFO.ordinal() >= threshold) {
+            LogRing.get().publish(Level.INFO, name, format, 3, null, null, new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (Level.INFO.ordinal() >= threshold) LogRing.get().publish(Level.INFO, name, format, args.length, null, null, args);
+    }
+
+    public void warn(String message) {
+        if (Level.WARN.ordinal() >= threshold) LogRing.get().publish(Level.WARN, name, message, 0, null, null, null);
+    }
+
+    public void warn(String format, Object arg) {
+        if (Level.WARN.ordinal() >= threshold) LogRing.get().publish(Level.WARN, name, format, 1, arg, null, null);
+    }
+
+    public void warn(String format, Object arg1, Object arg2) {
+        if (Level.WARN.ordinal() >= threshold) LogRing.get().publish(Level.WARN, name, format, 2, arg1, arg2, null);
+    }
+
+    public void warn(String format, Object arg1, Object arg2, Object arg3) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogRing.get().publish(Level.WARN, name, format, 3, null, null, new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (Level.WARN.ordinal() >= threshold) LogRing.get().publish(Level.WARN, name, format, args.length, null, null, args);
+    }
+
+    public void error(String message) {
+        if (Level.ERROR.ordinal() >= threshold) LogRing.get().publish(Level.ERROR, name, message, 0, null, null, null);
+    }
+
+    public void error(String format, Object arg) {
+        if (Level.ERROR.ordinal() >= threshold) LogRing.get().publish(Level.ERROR, name, format, 1, arg, null, null);
+    }
+
+    public void error(String format, Object arg1, Object arg2) {
+        if (Level.ERROR.ordinal() >= threshold) LogRing.get().publish(Level.ERROR, name, format, 2, arg1, arg2, null);
+    }
+
+    public void error(String format, Object arg1, Object arg2, Object arg3) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            LogRing.get().publish(Level.ERROR, name, format, 3, null, null, new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (Level.ERROR.ordinal() >= threshold) LogRing.get().publish(Level.ERROR, name, format, args.length, null, null, args);
+    }
+
+    private static Level parseLevel(String value) {
+        if (value == null) return Level.INFO;
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
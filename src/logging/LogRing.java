@@ -0,0 +1,173 @@
+package logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The ring buffer behind {@link Log}: many threads publish events into
+ * preallocated slots, and one daemon thread formats and writes them in
+ * order.
+ *
+ * Each publisher claims a sequence number with one atomic increment. The
+ * slot for sequence s is free once the writer has finished with s minus
+ * the capacity, and is handed to the writer by storing s in its ready
+ * field. When the buffer is full, publishers wait for the writer rather
+ * than drop lines.
+ */
+final class LogRing {
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Integer.getInteger("log.bufferSize", 8192)));
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    // Longest flush() waits: a thread stopped between claiming a slot and
+    // filling it (say, at exit) would otherwise hold it up for ever
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final LogRing INSTANCE = new LogRing();
+
+    private static final class Event {
+        volatile long free;   // sequence this slot may be written for next
+        volatile long ready;  // sequence whose event this slot holds
+        long time;
+        Level level;
+        String logger;
+        String thread;
+        String format;
+        int argCount;
+        Object arg1;
+        Object arg2;
+        Object[] args;
+    }
+
+    private final Event[] slots = new Event[CAPACITY];
+    private final int mask = CAPACITY - 1;
+    private final AtomicLong next = new AtomicLong();
+    // Next sequence the writer will take; only the writer moves it
+    private volatile long written;
+    private final Thread writer;
+    private final StringBuilder line = new StringBuilder(256);
+    // Bursts share a millisecond, so the last timestamp is kept formatted
+    private long stampMillis = Long.MIN_VALUE;
+    private String stamp;
+
+    static LogRing get() {
+        return INSTANCE;
+    }
+
+    private LogRing() {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Event();
+            slots[i].free = i;
+            slots[i].ready = -1;
+        }
+        writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // The writer is a daemon, so write out whatever is left on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "log-flush"));
+    }
+
+    void publish(Level level, String logger, String format, int argCount, Object arg1, Object arg2, Object[] args) {
+        long seq = next.getAndIncrement();
+        Event e = slots[(int) seq & mask];
+        while (e.free != seq) {
+            // Full: the writer is a whole ring behind
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        e.time = System.currentTimeMillis();
+        e.level = level;
+        e.logger = logger;
+        e.thread = Thread.currentThread().getName();
+        e.format = format;
+        e.argCount = argCount;
+        e.arg1 = arg1;
+        e.arg2 = arg2;
+        e.args = args;
+        e.ready = seq;
+    }
+
+    void flush() {
+        long target = next.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (written < target) {
+            if (!writer.isAlive()) {
+                drain(); // during shutdown the writer may already be gone
+                return;
+            }
+            if (System.nanoTime() - deadline > 0) return;
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Writes every event ready in order; false if there was none
+    private synchronized boolean drain() {
+        long seq = written;
+        boolean wroteOut = false, wroteErr = false;
+        while (true) {
+            Event e = slots[(int) seq & mask];
+            if (e.ready != seq) break;
+            boolean toErr = e.level.compareTo(Level.WARN) >= 0;
+            PrintStream out = toErr ? System.err : System.out;
+            Throwable thrown = format(e);
+            out.append(line);
+            if (thrown != null) thrown.printStackTrace(out);
+            wroteOut |= !toErr;
+            wroteErr |= toErr;
+            e.arg1 = e.arg2 = null;
+            e.args = null;
+            e.free = seq + CAPACITY;
+            written = ++seq;
+        }
+        if (wroteOut) System.out.flush();
+        if (wroteErr) System.err.flush();
+        return wroteOut || wroteErr;
+    }
+
+    // Formats the event into 'line'; returns a trailing Throwable argument
+    private Throwable format(Event e) {
+        StringBuilder sb = line;
+        sb.setLength(0);
+        if (e.time != stampMillis) {
+            stampMillis = e.time;
+            stamp = TIME.format(Instant.ofEpochMilli(e.time));
+        }
+        sb.append(stamp);
+        sb.append(' ').append(e.level);
+        if (e.level.name().length() == 4) sb.append(' ');
+        sb.append(" [").append(e.thread).append("] ").append(e.logger).append(" - ");
+
+        int argCount = e.argCount;
+        int used = 0;
+        String f = e.format;
+        int from = 0;
+        for (int at = f.indexOf("{}"); at >= 0 && used < argCount; at = f.indexOf("{}", from)) {
+            sb.append(f, from, at);
+            sb.append(arg(e, used++));
+            from = at + 2;
+        }
+        sb.append(f, from, f.length()).append(System.lineSeparator());
+        Object last = used < argCount ? arg(e, argCount - 1) : null;
+        return last instanceof Throwable ? (Throwable) last : null;
+    }
+
+    private static Object arg(Event e, int i) {
+        if (e.args != null) return e.args[i];
+        return i == 0 ? e.arg1 : e.arg2;
+    }
+}
@@ -0,0 +1,68 @@
+package metrics;
+
+import java.util.Map;
+import javax.management.*;
+
+/**
+ * Exposes a registry over JMX, one read-only attribute per metric. The
+ * attribute list is rebuilt on every request, so metrics created later
+ * show up too.
+ */
+class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.values().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = registry.values();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = values.get(name);
+            if (value != null) list.add(new Attribute(name, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("dump".equals(actionName)) {
+            registry.dump();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = registry.values();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+        }
+        MBeanOperationInfo dump = new MBeanOperationInfo("dump", "Writes the metrics file now",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(MetricsRegistry.class.getName(), "Application metrics", attributes,
+                null, new MBeanOperationInfo[] {dump}, null);
+    }
+}
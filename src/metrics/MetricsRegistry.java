@@ -0,0 +1,145 @@
+package metrics;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import logging.Log;
+
+/**
+ * Named counters, gauges and histograms for the whole application.
+ *
+ * Metrics are created on first use by name and kept for the life of the
+ * process, so hot code looks them up once into a static field. Looking
+ * up metrics has no side effects; the application calls
+ * {@link #startReporting()} once at startup to make every metric readable
+ * over JMX as an attribute of {@code ecommerce:type=Metrics} and to write
+ * them all to {@code data/metrics.txt} every minute
+ * ({@code -Dmetrics.dumpIntervalSeconds=N}, 0 to turn off).
+ *
+ * Histograms are reported as count, mean, p50, p90, p99, p999 and max;
+ * latencies are in nanoseconds.
+ */
+public class MetricsRegistry {
+    private static final Log LOG = Log.get(MetricsRegistry.class);
+    private static final String DUMP_FILE = "data/metrics.txt";
+    private static final String INTERVAL_PROPERTY = "metrics.dumpIntervalSeconds";
+    private static final String MBEAN_NAME = "ecommerce:type=Metrics";
+
+    private static MetricsRegistry defaultInstance;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Path dumpFile;
+    private ScheduledExecutorService scheduler;
+    private boolean reporting;
+
+    public static synchronized MetricsRegistry getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new MetricsRegistry(DUMP_FILE);
+        }
+        return defaultInstance;
+    }
+
+    /** @param dumpFile where {@link #dump()} writes, or null for nowhere */
+    public MetricsRegistry(String dumpFile) {
+        this.dumpFile = dumpFile == null ? null : Paths.get(dumpFile);
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Reports {@code value} under the name, replacing any earlier gauge. */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Every metric's current value by name, sorted. Histograms expand to
+     * name.count, name.mean, name.p50 and so on.
+     */
+    public SortedMap<String, Number> values() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        counters.forEach((name, c) -> values.put(name, c.get()));
+        gauges.forEach((name, g) -> values.put(name, g.getAsLong()));
+        histograms.forEach((name, h) -> {
+            Histogram.Snapshot s = h.snapshot();
+            values.put(name + ".count", s.getCount());
+            values.put(name + ".mean", Math.round(s.getMean()));
+            values.put(name + ".p50", s.getPercentile(0.50));
+            values.put(name + ".p90", s.getPercentile(0.90));
+            values.put(name + ".p99", s.getPercentile(0.99));
+            values.put(name + ".p999", s.getPercentile(0.999));
+            values.put(name + ".max", s.getMax());
+        });
+        return values;
+    }
+
+    /** Writes every metric as "name value" lines. */
+    public void writeTo(Writer out) throws IOException {
+        out.write("# " + new Date() + "\n");
+        for (Map.Entry<String, Number> e : values().entrySet()) {
+            out.write(e.getKey() + " " + e.getValue() + "\n");
+        }
+    }
+
+    /** Writes the dump file, replacing the last one in a single move. */
+    public void dump() {
+        if (dumpFile == null) return;
+        try {
+            Path dir = dumpFile.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, "metrics", ".tmp");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8))) {
+                writeTo(out);
+            }
+            Files.move(tmp, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to write metrics to {}: {}", dumpFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Registers the metrics over JMX and starts the periodic dump. Only the
+     * application calls this; libraries and benchmarks that merely load
+     * instrumented classes get neither. Later calls do nothing.
+     */
+    public synchronized void startReporting() {
+        if (reporting) return;
+        reporting = true;
+        registerMBean(MBEAN_NAME);
+        startDumping(Long.getLong(INTERVAL_PROPERTY, 60));
+    }
+
+    private synchronized void startDumping(long intervalSeconds) {
+        if (intervalSeconds <= 0 || scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), new ObjectName(name));
+        } catch (JMException | RuntimeException e) {
+            LOG.warn("Metrics are not available over JMX: {}", e.getMessage());
+        }
+    }
+}
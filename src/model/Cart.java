@@ -1,79 +1,146 @@
 package model;
 
+import java.util.HashMap;
+import java.util.Map;
+import logging.Log;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+
 public class Cart {
+    private static final Log LOG = Log.get(Cart.class);
+    private static final Counter ITEMS_ADDED = MetricsRegistry.getDefault().counter("cart.itemsAdded");
+    private static final Counter ITEMS_REMOVED = MetricsRegistry.getDefault().counter("cart.itemsRemoved");
+    private static final Counter QUANTITY_CHANGES = MetricsRegistry.getDefault().counter("cart.quantityChanges");
+
     private CartItem head;
+    private CartItem tail;
+    // Product ID -> node in the linked list, so lookups don't walk the list.
+    // Built on first lookup: carts read back from order history are mostly
+    // only iterated, and a map per historical order adds up.
+    private Map<String, CartItem> index;
+    // Running aggregates, updated on every mutation. The total is kept in
+    // cents so repeated adds and removes never accumulate rounding error.
+    private long totalCents;
+    private int totalUnits;
+    private int lineCount;
 
     public Cart() {
         head = null;
+        tail = null;
     }
 
-    public void addItem(Product product, int quantity) {
-        CartItem current = head;
-        while (current != null) {
-            if (current.getProduct().getId().equals(product.getId())) {
-                current.setQuantity(current.getQuantity() + quantity);
-                return;
+    private Map<String, CartItem> index() {
+        if (index == null) {
+            index = new HashMap<>();
+            for (CartItem item = head; item != null; item = item.getNext()) {
+                index.put(item.getProductId(), item);
             }
-            current = current.getNext();
+        }
+        return index;
+    }
+
+    public void addItem(Product product, int quantity) {
+        ITEMS_ADDED.increment();
+        CartItem existing = index().get(product.getId());
+        if (existing != null) {
+            existing.setQuantity(existing.getQuantity() + quantity);
+            totalUnits += quantity;
+            totalCents += existing.getPriceCents() * quantity;
+            return;
         }
         CartItem newItem = new CartItem(product, quantity);
         newItem.setNext(head);
+        if (head != null) {
+            head.setPrev(newItem);
+        } else {
+            tail = newItem;
+        }
         head = newItem;
+        linked(newItem);
     }
 
-    public void removeItem(String productId) {
-        CartItem current = head, prev = null;
-        while (current != null) {
-            if (current.getProduct().getId().equals(productId)) {
-                if (prev == null) {
-                    head = current.getNext();
-                } else {
-                    prev.setNext(current.getNext());
-                }
-                return;
-            }
-            prev = current;
-            current = current.getNext();
+    /**
+     * Adds a line read back from a saved order at the end of the list, so
+     * the lines keep their order. Saved orders never repeat a product, so
+     * this doesn't look for an existing line.
+     */
+    void appendItem(ProductRef product, long priceCents, int quantity) {
+        CartItem newItem = new CartItem(product, priceCents, quantity);
+        newItem.setPrev(tail);
+        if (tail != null) {
+            tail.setNext(newItem);
+        } else {
+            head = newItem;
         }
+        tail = newItem;
+        linked(newItem);
     }
 
-    public void displayCart() {
-        CartItem current = head;
-        while (current != null) {
-            System.out.println(current.getProduct().getName() + " x " + current.getQuantity());
-            current = current.getNext();
+    private void linked(CartItem item) {
+        if (index != null) index.put(item.getProductId(), item);
+        lineCount++;
+        totalUnits += item.getQuantity();
+        totalCents += item.getPriceCents() * item.getQuantity();
+    }
+
+    public void removeItem(String productId) {
+        CartItem item = index().remove(productId);
+        if (item == null) return;
+        ITEMS_REMOVED.increment();
+        CartItem prev = item.getPrev();
+        CartItem next = item.getNext();
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.setNext(next);
+        }
+        if (next != null) {
+            next.setPrev(prev);
+        } else {
+            tail = prev;
         }
+        item.setNext(null);
+        item.setPrev(null);
+        lineCount--;
+        totalUnits -= item.getQuantity();
+        totalCents -= item.getPriceCents() * item.getQuantity();
+    }
+
+    public void setQuantity(String productId, int quantity) {
+        CartItem item = index().get(productId);
+        if (item == null) return;
+        QUANTITY_CHANGES.increment();
+        int delta = quantity - item.getQuantity();
+        item.setQuantity(quantity);
+        totalUnits += delta;
+        totalCents += item.getPriceCents() * delta;
     }
 
-    public double calculateTotal() {
-        double total = 0;
+    public boolean contains(String productId) {
+        return index().containsKey(productId);
+    }
+
+    public int getQuantity(String productId) {
+        CartItem item = index().get(productId);
+        return item == null ? 0 : item.getQuantity();
+    }
+
+    public CartItem getItem(String productId) {
+        return index().get(productId);
+    }
+
+    public void displayCart() {
         CartItem current = head;
         while (current != null) {
-            total += current.getProduct().getPrice() * current.getQuantity();
+            LOG.info("{} x {}", current.getProductName(), current.getQuantity());
             current = current.getNext();
         }
-        return total;
     }
 
-    public CartItem getHead() { return head; }
-
-    public static void performanceTest(int numItems) {
-        Cart cart = new Cart();
-        long startAdd = System.nanoTime();
-        for (int i = 0; i < numItems; i++) {
-            cart.addItem(new Product("ID" + i, "Product" + i, 1.0, 100), 1);
-        }
-        long endAdd = System.nanoTime();
-        long addTime = endAdd - startAdd;
+    public long getTotalCents() { return totalCents; }
+    public int getTotalUnits() { return totalUnits; }
+    public int getLineCount() { return lineCount; }
+    public boolean isEmpty() { return lineCount == 0; }
 
-        long startRemove = System.nanoTime();
-        for (int i = 0; i < numItems; i++) {
-            cart.removeItem("ID" + i);
-        }
-        long endRemove = System.nanoTime();
-        long removeTime = endRemove - startRemove;
-
-        System.out.println("Add " + numItems + " items: " + addTime + " ns");
-        System.out.println("Remove " + numItems + " items: " + removeTime + " ns");
-    }
+    public CartItem getHead() { return head; }
 }
@@ -1,19 +1,54 @@
 package model;
 
+/**
+ * One line of a cart: a product, the price per unit when it was added and
+ * the quantity.
+ *
+ * Lines of a live cart point at the catalogue product, whose stock is
+ * reserved at checkout. Lines of order history only keep the shared
+ * {@link ProductRef} and the price paid, so a long history holds no
+ * product copies.
+ */
 public class CartItem {
-    private Product product;
+    private final Product product; // null for order history
+    private final ProductRef ref;
+    private final long priceCents;
     private int quantity;
     private CartItem next;
+    private CartItem prev;
 
     public CartItem(Product product, int quantity) {
         this.product = product;
+        this.ref = ProductRef.of(product.getId(), product.getName());
+        this.priceCents = product.getPriceCents();
         this.quantity = quantity;
-        this.next = null;
     }
 
-    public Product getProduct() { return product; }
+    // A line read back from the order log
+    CartItem(ProductRef ref, long priceCents, int quantity) {
+        this.product = null;
+        this.ref = ref;
+        this.priceCents = priceCents;
+        this.quantity = quantity;
+    }
+
+    /**
+     * The catalogue product for a live cart. For order history this is a
+     * detached copy, made on each call, with no stock.
+     */
+    public Product getProduct() {
+        return product != null ? product : new Product(ref.getId(), ref.getName(), priceCents, 0);
+    }
+
+    public ProductRef getProductRef() { return ref; }
+    public String getProductId() { return ref.getId(); }
+    public String getProductName() { return ref.getName(); }
+    /** Price per unit when the line was added. */
+    public long getPriceCents() { return priceCents; }
     public int getQuantity() { return quantity; }
-    public void setQuantity(int quantity) { this.quantity = quantity; }
+    void setQuantity(int quantity) { this.quantity = quantity; }
     public CartItem getNext() { return next; }
-    public void setNext(CartItem next) { this.next = next; }
+    void setNext(CartItem next) { this.next = next; }
+    CartItem getPrev() { return prev; }
+    void setPrev(CartItem prev) { this.prev = prev; }
 }
@@ -0,0 +1,287 @@
+package model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Products stored column by column for very large catalogues.
+ *
+ * Prices and stock live in primitive arrays, and IDs and names are UTF-8
+ * bytes packed into one shared dictionary (repeated names are stored once).
+ * IDs are indexed by an open-addressing hash table of row numbers. No
+ * per-product objects are kept: {@link #get(int)} hands out a small
+ * {@link Product} view that reads and writes the columns.
+ *
+ * Rows are only added while loading; after that only stock changes, with
+ * atomic updates on the stock column.
+ */
+class ColumnarProductStore {
+    private static final VarHandle STOCK = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int EMPTY = -1;
+
+    private int size;
+    private long[] priceCents;
+    private int[] stock;
+    private int[] idRefs;   // dictionary offsets
+    private int[] nameRefs;
+
+    // Dictionary: each entry is a 1-5 byte length followed by the UTF-8 bytes
+    private byte[] dict = new byte[1024];
+    private int dictSize;
+    // Dictionary offsets by content hash, so equal names share one entry
+    private int[] dictSlots = newTable(1024);
+    private int dictEntries;
+
+    // Row numbers by ID hash
+    private int[] idSlots;
+    private boolean trimmed;
+
+    ColumnarProductStore(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        priceCents = new long[capacity];
+        stock = new int[capacity];
+        idRefs = new int[capacity];
+        nameRefs = new int[capacity];
+        idSlots = newTable(tableSize(capacity));
+    }
+
+    /**
+     * Adds a product row.
+     *
+     * @return false if a product with this ID is already stored
+     */
+    boolean add(String id, String name, long cents, int units) {
+        if (trimmed) throw new IllegalStateException("no rows can be added after trimToSize()");
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int slot = findIdSlot(idBytes);
+        if (idSlots[slot] != EMPTY) return false;
+        if (size == priceCents.length) grow();
+        idRefs[size] = intern(idBytes);
+        nameRefs[size] = intern(name.getBytes(StandardCharsets.UTF_8));
+        priceCents[size] = cents;
+        stock[size] = units;
+        idSlots[slot] = size;
+        size++;
+        if (size * 2 > idSlots.length) rehashIds();
+        return true;
+    }
+
+    int size() { return size; }
+
+    /** Drops spare capacity once loading is done; no rows can be added after. */
+    void trimToSize() {
+        trimmed = true;
+        priceCents = Arrays.copyOf(priceCents, size);
+        stock = Arrays.copyOf(stock, size);
+        idRefs = Arrays.copyOf(idRefs, size);
+        nameRefs = Arrays.copyOf(nameRefs, size);
+        dict = Arrays.copyOf(dict, dictSize);
+        dictSlots = null; // only needed while adding
+    }
+
+    /** Row of the product with this ID, or -1. */
+    int indexOf(String id) {
+        int row = idSlots[findIdSlot(id.getBytes(StandardCharsets.UTF_8))];
+        return row == EMPTY ? -1 : row;
+    }
+
+    String getId(int row) { return decode(idRefs[row]); }
+    String getName(int row) { return decode(nameRefs[row]); }
+    long getPriceCents(int row) { return priceCents[row]; }
+    int getStock(int row) { return (int) STOCK.getVolatile(stock, row); }
+    void setStock(int row, int units) { STOCK.setVolatile(stock, row, units); }
+    int addStock(int row, int delta) { return (int) STOCK.getAndAdd(stock, row, delta) + delta; }
+    boolean compareAndSetStock(int row, int expected, int units) { return STOCK.compareAndSet(stock, row, expected, units); }
+
+    /** A view of the row; cheap enough to create on every lookup. */
+    Product get(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("row " + row);
+        return new View(this, row);
+    }
+
+    /** All rows as a list of views. */
+    List<Product> asList() {
+        return new Rows();
+    }
+
+    // ---- dictionary ----
+
+    private int intern(byte[] bytes) {
+        int mask = dictSlots.length - 1;
+        int slot = hash(bytes) & mask;
+        while (dictSlots[slot] != EMPTY) {
+            if (entryEquals(dictSlots[slot], bytes)) return dictSlots[slot];
+            slot = (slot + 1) & mask;
+        }
+        int offset = append(bytes);
+        dictSlots[slot] = offset;
+        if (++dictEntries * 2 > dictSlots.length) rehashDict();
+        return offset;
+    }
+
+    private int append(byte[] bytes) {
+        if (dictSize + bytes.length + 5 > dict.length) {
+            long needed = (long) dictSize + bytes.length + 5;
+            long grown = Math.max(needed, dict.length + (dict.length >> 1));
+            if (grown > Integer.MAX_VALUE - 8) throw new IllegalStateException("product dictionary is full");
+            dict = Arrays.copyOf(dict, (int) grown);
+        }
+        int offset = dictSize;
+        int length = bytes.length;
+        // 7 bits per length byte, high bit set on all but the last
+        while (length >= 0x80) {
+            dict[dictSize++] = (byte) (length | 0x80);
+            length >>>= 7;
+        }
+        dict[dictSize++] = (byte) length;
+        System.arraycopy(bytes, 0, dict, dictSize, bytes.length);
+        dictSize += bytes.length;
+        return offset;
+    }
+
+    private int entryStart(int offset) {
+        while ((dict[offset] & 0x80) != 0) offset++;
+        return offset + 1;
+    }
+
+    private int entryLength(int offset) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = dict[offset++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return length;
+    }
+
+    private boolean entryEquals(int offset, byte[] bytes) {
+        if (entryLength(offset) != bytes.length) return false;
+        int start = entryStart(offset);
+        for (int i = 0; i < bytes.length; i++) {
+            if (dict[start + i] != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private String decode(int offset) {
+        return new String(dict, entryStart(offset), entryLength(offset), StandardCharsets.UTF_8);
+    }
+
+    private int entryHash(int offset) {
+        int start = entryStart(offset);
+        int length = entryLength(offset);
+        int h = 1;
+        for (int i = 0; i < length; i++) h = 31 * h + dict[start + i];
+        return mix(h);
+    }
+
+    private void rehashDict() {
+        int[] slots = newTable(dictSlots.length * 2);
+        int mask = slots.length - 1;
+        for (int offset : dictSlots) {
+            if (offset == EMPTY) continue;
+            int slot = entryHash(offset) & mask;
+            while (slots[slot] != EMPTY) slot = (slot + 1) & mask;
+            slots[slot] = offset;
+        }
+        dictSlots = slots;
+    }
+
+    // ---- ID index ----
+
+    // The slot holding this ID, or the empty slot where it would go
+    private int findIdSlot(byte[] idBytes) {
+        int mask = idSlots.length - 1;
+        int slot = hash(idBytes) & mask;
+        while (idSlots[slot] != EMPTY && !entryEquals(idRefs[idSlots[slot]], idBytes)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehashIds() {
+        int[] slots = newTable(idSlots.length * 2);
+        int mask = slots.length - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = entryHash(idRefs[row]) & mask;
+            while (slots[slot] != EMPTY) slot = (slot + 1) & mask;
+            slots[slot] = row;
+        }
+        idSlots = slots;
+    }
+
+    private void grow() {
+        int capacity = priceCents.length + (priceCents.length >> 1);
+        priceCents = Arrays.copyOf(priceCents, capacity);
+        stock = Arrays.copyOf(stock, capacity);
+        idRefs = Arrays.copyOf(idRefs, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 1;
+        for (byte b : bytes) h = 31 * h + b;
+        return mix(h);
+    }
+
+    // Spreads the bits so linear probing over a power-of-two table behaves
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSize(int entries) {
+        return Integer.highestOneBit(Math.max(8, entries) * 2 - 1) << 1;
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private class Rows extends AbstractList<Product> implements RandomAccess {
+        @Override
+        public Product get(int index) { return ColumnarProductStore.this.get(index); }
+
+        @Override
+        public int size() { return size; }
+    }
+
+    /**
+     * A product backed by one row of the store. Views of the same row are
+     * equal and share their stock.
+     */
+    private static final class View extends Product {
+        private final ColumnarProductStore store;
+        private final int row;
+
+        View(ColumnarProductStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override public String getId() { return store.getId(row); }
+        @Override public String getName() { return store.getName(row); }
+        @Override public long getPriceCents() { return store.getPriceCents(row); }
+        @Override public int getStock() { return store.getStock(row); }
+        @Override public void setStock(int stock) { store.setStock(row, stock); }
+        @Override public int addStock(int delta) { return store.addStock(row, delta); }
+        @Override public boolean compareAndSetStock(int expected, int stock) { return store.compareAndSetStock(row, expected, stock); }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof View && ((View) o).store == store && ((View) o).row == row;
+        }
+
+        @Override
+        public int hashCode() { return System.identityHashCode(store) * 31 + row; }
+    }
+}
@@ -0,0 +1,22 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Thrown when a record in the middle of a binary order log can't be
+ * read, as opposed to a record torn at the end by a crash.
+ */
+class CorruptOrderLogException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+
+    CorruptOrderLogException(Path file, long offset, String detail) {
+        super("Corrupt order record at offset " + offset + " of " + file + ": " + detail);
+        this.offset = offset;
+    }
+
+    /** Where the unreadable record starts. */
+    long getOffset() { return offset; }
+}
@@ -0,0 +1,135 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Amounts of money as a whole number of cents in a {@code long}, so sums
+ * and products are exact.
+ *
+ * Formatting and parsing work on the plain "123.45" form the products file
+ * and order log use, without allocating on the common path: appending
+ * writes straight into the caller's StringBuilder, and parsing reads
+ * characters or bytes in place.
+ */
+public final class Money {
+    // Up to this many digits before the point, the amount in cents stays
+    // below 10^18 and fits a long; longer amounts go through BigDecimal
+    private static final int MAX_INTEGER_DIGITS = 16;
+
+    private Money() {
+    }
+
+    /** Appends the amount as e.g. "12.34" or "-0.05". */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        // Work with non-positive values so Long.MIN_VALUE needs no special case
+        long negated = cents > 0 ? -cents : cents;
+        if (cents < 0) sb.append('-');
+        long units = -(negated / 100);
+        int fraction = (int) -(negated % 100);
+        sb.append(units).append('.');
+        if (fraction < 10) sb.append('0');
+        return sb.append(fraction);
+    }
+
+    /** The amount as e.g. "12.34". */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Parses an amount such as "12", "12.3" or "-12.34" into cents, rounding
+     * half up past the second decimal.
+     *
+     * @throws NumberFormatException if it isn't a number
+     */
+    public static long parse(CharSequence s) {
+        return parse(s, 0, s.length());
+    }
+
+    public static long parse(CharSequence s, int from, int to) {
+        while (from < to && s.charAt(from) == ' ') from++;
+        while (to > from && s.charAt(to - 1) == ' ') to--;
+        boolean negative = from < to && s.charAt(from) == '-';
+        int start = negative ? from + 1 : from;
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (int i = start; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (fractionDigits < 2) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                    if (fractionDigits >= 0) fractionDigits++;
+                } else if (fractionDigits == 2) {
+                    roundUp = c >= '5';
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseSlow(s.subSequence(from, to).toString());
+            }
+        }
+        if (digits == 0 || digits - Math.max(fractionDigits, 0) > MAX_INTEGER_DIGITS) {
+            return parseSlow(s.subSequence(from, to).toString());
+        }
+        return scale(negative, value, fractionDigits, roundUp);
+    }
+
+    /** Parses ASCII bytes, as {@link #parse(CharSequence)} does. */
+    public static long parse(byte[] buf, int from, int to) {
+        while (from < to && buf[from] == ' ') from++;
+        while (to > from && buf[to - 1] == ' ') to--;
+        boolean negative = from < to && buf[from] == '-';
+        int start = negative ? from + 1 : from;
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (int i = start; i < to; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                if (fractionDigits < 2) {
+                    value = value * 10 + (b - '0');
+                    digits++;
+                    if (fractionDigits >= 0) fractionDigits++;
+                } else if (fractionDigits == 2) {
+                    roundUp = b >= '5';
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseSlow(new String(buf, from, to - from, StandardCharsets.US_ASCII));
+            }
+        }
+        if (digits == 0 || digits - Math.max(fractionDigits, 0) > MAX_INTEGER_DIGITS) {
+            return parseSlow(new String(buf, from, to - from, StandardCharsets.US_ASCII));
+        }
+        return scale(negative, value, fractionDigits, roundUp);
+    }
+
+    // value holds the digits read, with at most two after the point
+    private static long scale(boolean negative, long value, int fractionDigits, boolean roundUp) {
+        if (fractionDigits <= 0) {
+            value *= 100;
+        } else if (fractionDigits == 1) {
+            value *= 10;
+        }
+        if (roundUp) value++;
+        return negative ? -value : value;
+    }
+
+    // Exponents, huge amounts and anything else unusual
+    private static long parseSlow(String s) {
+        try {
+            return new BigDecimal(s.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("amount out of range: " + s);
+        }
+    }
+}
@@ -6,26 +6,76 @@ public class Order {
     private String orderId;
     private String username;
     private Cart cart;
-    private double total;
+    private long totalCents;
     private Date timestamp;
+    // Header-only orders: total units; items is where the line items sit in the
+    // order log (kept after loading so snapshots can point at them), or null
+    private int itemCount;
+    private OrderItemsRef items;
+    // System.nanoTime() when handed to fulfilment, for latency tracking
+    private volatile long enqueuedAt;
+    // Stock held for this order at checkout, committed once it is fulfilled
+    private volatile StockEngine.Reservation reservation;
 
-    public Order(String username, Cart cart, double total) {
+    public Order(String username, Cart cart, long totalCents) {
         this.orderId = generateOrderId();
         this.username = username;
         this.cart = cart;
-        this.total = total;
+        this.totalCents = totalCents;
         this.timestamp = new Date();
     }
 
+    // Restores an order read back from the order log
+    Order(String orderId, String username, Cart cart, long totalCents, Date timestamp) {
+        this.orderId = orderId;
+        this.username = username;
+        this.cart = cart;
+        this.totalCents = totalCents;
+        this.timestamp = timestamp;
+    }
+
+    // Restores only the header of a logged order; the cart is read on first use
+    Order(String orderId, String username, long totalCents, Date timestamp, int itemCount, OrderItemsRef items) {
+        this.orderId = orderId;
+        this.username = username;
+        this.totalCents = totalCents;
+        this.timestamp = timestamp;
+        this.itemCount = itemCount;
+        this.items = items;
+    }
+
     private String generateOrderId() {
-        return "ORD" + System.currentTimeMillis();
+        return OrderIdGenerator.nextId();
     }
 
     public String getOrderId() { return orderId; }
     public void setOrderId(String orderId) { this.orderId = orderId; }
     public String getUsername() { return username; }
-    public Cart getCart() { return cart; }
-    public double getTotal() { return total; }
+    /**
+     * The ordered items. For an order read back from the log they are loaded
+     * on first call; a failed load isn't kept, so the next call tries again.
+     *
+     * @throws java.io.UncheckedIOException if the items can't be read from the order log
+     */
+    public synchronized Cart getCart() {
+        if (cart == null) {
+            cart = items.load();
+        }
+        return cart;
+    }
+
+    synchronized OrderItemsRef getItemsRef() { return items; }
+    synchronized void setItemsRef(OrderItemsRef items) { this.items = items; }
+
+    /** Total units ordered, available without loading the line items. */
+    public synchronized int getItemCount() {
+        return cart != null ? cart.getTotalUnits() : itemCount;
+    }
+    public long getTotalCents() { return totalCents; }
+    long getEnqueuedAt() { return enqueuedAt; }
+    void markEnqueued(long nanoTime) { this.enqueuedAt = nanoTime; }
+    StockEngine.Reservation getReservation() { return reservation; }
+    void setReservation(StockEngine.Reservation reservation) { this.reservation = reservation; }
     public Date getTimestamp() { return timestamp; }
 
     @Override
@@ -33,13 +83,14 @@ public class Order {
         StringBuilder sb = new StringBuilder();
         sb.append("Order ID: ").append(orderId).append("\n");
         sb.append("User: ").append(username).append("\n");
-        sb.append("Order at: ").append(timestamp).append(", Total: $").append(String.format("%.2f", total)).append("\n");
+        sb.append("Order at: ").append(timestamp).append(", Total: $");
+        Money.appendTo(sb, totalCents).append("\n");
         
-        CartItem current = cart.getHead();
+        CartItem current = getCart().getHead();
         while (current != null) {
-            Product product = current.getProduct();
-            sb.append(product.getId()).append(",").append(product.getName()).append(",")
-              .append(current.getQuantity()).append(",").append(String.format("%.2f", product.getPrice())).append("\n");
+            sb.append(current.getProductId()).append(",").append(current.getProductName()).append(",")
+              .append(current.getQuantity()).append(",");
+            Money.appendTo(sb, current.getPriceCents()).append("\n");
             current = current.getNext();
         }
         sb.append("---");
@@ -49,13 +100,14 @@ public class Order {
     public String toFileString() {
         StringBuilder sb = new StringBuilder();
         sb.append(orderId).append("|").append(username).append("|")
-          .append(timestamp.getTime()).append("|").append(String.format("%.2f", total)).append("\n");
+          .append(timestamp.getTime()).append("|");
+        Money.appendTo(sb, totalCents).append("\n");
         
-        CartItem current = cart.getHead();
+        CartItem current = getCart().getHead();
         while (current != null) {
-            Product product = current.getProduct();
-            sb.append(product.getId()).append(",").append(product.getName()).append(",")
-              .append(current.getQuantity()).append(",").append(String.format("%.2f", product.getPrice())).append("\n");
+            sb.append(current.getProductId()).append(",").append(current.getProductName()).append(",")
+              .append(current.getQuantity()).append(",");
+            Money.appendTo(sb, current.getPriceCents()).append("\n");
             current = current.getNext();
         }
         sb.append("---");
@@ -69,7 +121,7 @@ public class Order {
         String orderId = parts[0];
         String username = parts[1];
         long timestamp = Long.parseLong(parts[2]);
-        double total = Double.parseDouble(parts[3]);
+        long total = Money.parse(parts[3]);
         
         // Create a temporary cart to hold the items
         Cart tempCart = new Cart();
@@ -81,9 +133,8 @@ public class Order {
                 String id = itemParts[0];
                 String name = itemParts[1];
                 int quantity = Integer.parseInt(itemParts[2]);
-                double price = Double.parseDouble(itemParts[3]);
-                Product product = new Product(id, name, price, 0); // stock not relevant for orders
-                tempCart.addItem(product, quantity);
+                long price = Money.parse(itemParts[3]);
+                tempCart.appendItem(ProductRef.of(id, name), price, quantity);
             }
         }
         
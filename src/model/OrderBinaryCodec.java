@@ -0,0 +1,241 @@
+package model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Binary order log format.
+ *
+ * The file starts with the magic bytes "ORDB" and an int format version,
+ * followed by one record per order. Each record is an int payload length
+ * and then:
+ * <pre>
+ *   string orderId, string username, long timestamp (epoch ms),
+ *   long total (cents), int lineCount,
+ *   lineCount x { string productId, string name, int quantity, long price (cents) }
+ * </pre>
+ * Strings are an int byte length followed by UTF-8 bytes. All numbers are
+ * big-endian. Reading maps the file with a {@link FileChannel} so records
+ * are decoded straight out of the page cache.
+ */
+class OrderBinaryCodec {
+    static final byte[] MAGIC = {'O', 'R', 'D', 'B'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 4;
+    // Largest region mapped at once; mappings are capped at 2 GB anyway
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+    // Longest record payload written or accepted; a longer length field is
+    // damage, not an order
+    static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private byte[] scratch = new byte[256];
+
+    static byte[] header() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.put(MAGIC).putInt(VERSION);
+        return buf.array();
+    }
+
+    /**
+     * Encodes one order as a complete record, length prefix included.
+     */
+    static byte[] encode(Order order) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // length, patched below
+            writeString(out, order.getOrderId());
+            writeString(out, order.getUsername());
+            out.writeLong(order.getTimestamp().getTime());
+            out.writeLong(order.getTotalCents());
+            Cart cart = order.getCart();
+            out.writeInt(cart.getLineCount());
+            for (CartItem item = cart.getHead(); item != null; item = item.getNext()) {
+                writeString(out, item.getProductId());
+                writeString(out, item.getProductName());
+                out.writeInt(item.getQuantity());
+                out.writeLong(item.getPriceCents());
+            }
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            if (record.length - 4 > MAX_RECORD_SIZE) {
+                throw new IllegalArgumentException("Order " + order.getOrderId() + " is too large to log");
+            }
+            ByteBuffer.wrap(record).putInt(0, record.length - 4);
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen with an in-memory stream
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Decodes every record in the file, in file order. A record cut short at
+     * the end of the file (e.g. by a crash mid-append) is ignored.
+     *
+     * @throws CorruptOrderLogException if a record has an impossible length
+     *                                  or can't be decoded; the records
+     *                                  before it have been passed to the sink
+     *
+     * @param headersOnly if true, orders are restored without their line
+     *                    items, which are read from the file on first use
+     * @return number of bytes of complete records read, header included
+     */
+    long readAll(Path file, boolean headersOnly, Consumer<Order> sink) throws IOException {
+        return readAll(file, 0, headersOnly, sink);
+    }
+
+    /**
+     * Like {@link #readAll(Path, boolean, Consumer)}, but starts at the record
+     * beginning at {@code from}, e.g. to replay the tail after a snapshot.
+     */
+    long readAll(Path file, long from, boolean headersOnly, Consumer<Order> sink) throws IOException {
+        return readAll(file, from, Long.MAX_VALUE, headersOnly, sink);
+    }
+
+    /**
+     * Like {@link #readAll(Path, long, boolean, Consumer)}, but treats the
+     * file as ending at {@code until}.
+     */
+    long readAll(Path file, long from, long until, boolean headersOnly, Consumer<Order> sink) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(ch.size(), until);
+            if (size == 0) return 0;
+            long pos = from;
+            if (pos < HEADER_SIZE) {
+                checkHeader(ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_SIZE)), file);
+                pos = HEADER_SIZE;
+            }
+            while (pos < size) {
+                long window = Math.min(size - pos, MAP_WINDOW);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, window);
+                while (buf.remaining() >= 4) {
+                    int start = buf.position();
+                    int length = checkLength(buf.getInt(start), file, pos + start);
+                    if (buf.remaining() - 4 < length) break;
+                    sink.accept(decodeRecord(buf.slice(start + 4, length), file, pos + start, headersOnly));
+                    buf.position(start + 4 + length);
+                }
+                if (buf.position() == 0) {
+                    if (window == size - pos) break; // truncated last record
+                    // A single record bigger than the window: map just that record
+                    int length = checkLength(ch.map(FileChannel.MapMode.READ_ONLY, pos, 4).getInt(0), file, pos);
+                    if (pos + 4 + length > size) break;
+                    sink.accept(decodeRecord(ch.map(FileChannel.MapMode.READ_ONLY, pos + 4, length), file, pos, headersOnly));
+                    pos += 4 + length;
+                } else {
+                    pos += buf.position();
+                }
+            }
+            return pos;
+        }
+    }
+
+    private static int checkLength(int length, Path file, long offset) throws CorruptOrderLogException {
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new CorruptOrderLogException(file, offset, "record length " + length);
+        }
+        return length;
+    }
+
+    // Decodes the payload of the record starting at recordStart
+    private Order decodeRecord(ByteBuffer rec, Path file, long recordStart, boolean headersOnly)
+            throws CorruptOrderLogException {
+        try {
+            return decode(rec, file, recordStart + 4, headersOnly);
+        } catch (RuntimeException e) {
+            throw new CorruptOrderLogException(file, recordStart, e.toString());
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buf, Path file) throws IOException {
+        if (buf.remaining() < HEADER_SIZE) throw new IOException(file + " is not a binary order log");
+        for (byte b : MAGIC) {
+            if (buf.get() != b) throw new IOException(file + " is not a binary order log");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported order log version " + version + " in " + file);
+        }
+    }
+
+    /**
+     * Decodes one record payload starting at {@code recordOffset} in the file.
+     */
+    private Order decode(ByteBuffer rec, Path file, long recordOffset, boolean headersOnly) {
+        String orderId = readString(rec);
+        String username = readString(rec);
+        long timestamp = rec.getLong();
+        long total = rec.getLong();
+        int lines = rec.getInt();
+        if (!headersOnly) {
+            Cart cart = decodeItems(rec, lines);
+            return new Order(orderId, username, cart, total, new Date(timestamp));
+        }
+        int itemsStart = rec.position();
+        int units = 0;
+        for (int i = 0; i < lines; i++) {
+            skipString(rec); // product id
+            skipString(rec); // name
+            units += rec.getInt();
+            rec.getLong();
+        }
+        OrderItemsRef items = new OrderItemsRef(file, OrderLogFormat.BINARY,
+                recordOffset + itemsStart, rec.limit() - itemsStart, lines);
+        return new Order(orderId, username, total, new Date(timestamp), units, items);
+    }
+
+    Cart decodeItems(ByteBuffer buf, int lines) {
+        Cart cart = new Cart();
+        for (int i = 0; i < lines; i++) {
+            String id = readString(buf);
+            String name = readString(buf);
+            int quantity = buf.getInt();
+            long priceCents = buf.getLong();
+            cart.appendItem(ProductRef.of(id, name), priceCents, quantity);
+        }
+        return cart;
+    }
+
+    /**
+     * Where the line items of an encoded record end up once the record is
+     * written at {@code recordOffset}; null if it has none.
+     */
+    static OrderItemsRef locateItems(Path file, long recordOffset, byte[] record) {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        buf.position(4); // length
+        skipString(buf); // order id
+        skipString(buf); // username
+        buf.position(buf.position() + 16); // timestamp, total
+        int lines = buf.getInt();
+        if (lines == 0) return null;
+        return new OrderItemsRef(file, OrderLogFormat.BINARY,
+                recordOffset + buf.position(), record.length - buf.position(), lines);
+    }
+
+    private static void skipString(ByteBuffer rec) {
+        int length = rec.getInt();
+        rec.position(rec.position() + length);
+    }
+
+    private String readString(ByteBuffer rec) {
+        int length = rec.getInt();
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        rec.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
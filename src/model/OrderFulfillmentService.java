@@ -0,0 +1,335 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import logging.Log;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Background order fulfilment. Checkout only submits an order; a pool of
+ * worker threads drains the {@link OrderQueue} in batches and runs each
+ * batch through the configured steps (persistence, stock commit, ...).
+ *
+ * Workers are virtual threads when the JVM supports them and platform
+ * threads otherwise.
+ */
+public class OrderFulfillmentService {
+    private static final Log LOG = Log.get(OrderFulfillmentService.class);
+
+    /** One stage of fulfilment, applied to every order in turn. */
+    public interface Step {
+        void apply(Order order) throws Exception;
+
+        /**
+         * Applies the step to a drained batch, removing and reporting the
+         * orders it fails on. Steps that can share work across a batch,
+         * such as one durable write, override this.
+         */
+        default void applyAll(List<Order> orders, BiConsumer<Order, Exception> failed) {
+            for (Iterator<Order> it = orders.iterator(); it.hasNext(); ) {
+                Order order = it.next();
+                try {
+                    apply(order);
+                } catch (Exception e) {
+                    it.remove();
+                    failed.accept(order, e);
+                }
+            }
+        }
+    }
+
+    private static final int BATCH_SIZE = 256;
+    // Submit to completion of every step, across all services
+    private static final Histogram LATENCY = MetricsRegistry.getDefault().histogram("orders.fulfilment");
+    // Idle workers re-check the queue at least this often, in case a wake-up is missed
+    private static final long IDLE_WAIT_MS = 100;
+
+    private final OrderQueue queue;
+    private final List<Step> steps;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition workAvailable = idleLock.newCondition();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    // Submits past the running check that may not have queued their order yet
+    private final AtomicInteger submitting = new AtomicInteger();
+    private volatile boolean running;
+    private volatile Consumer<Order> listener;
+
+    private final LongAdder fulfilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public OrderFulfillmentService(OrderQueue queue, List<Step> steps) {
+        this.queue = queue;
+        this.steps = new ArrayList<>(steps);
+    }
+
+    /**
+     * Starts {@code workerCount} workers, on virtual threads if requested and
+     * available.
+     */
+    public synchronized void start(int workerCount, boolean virtualThreads) {
+        if (running) return;
+        running = true;
+        ThreadFactory factory = threadFactory(virtualThreads);
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = factory.newThread(this::runWorker);
+            worker.setName("order-fulfilment-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops accepting work, lets the workers finish everything already
+     * queued and waits for them to exit.
+     */
+    public void shutdown() {
+        List<Thread> toJoin;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            toJoin = new ArrayList<>(workers);
+            workers.clear();
+        }
+        wakeWorkers(true);
+        for (Thread worker : toJoin) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues an order whose stock was reserved at checkout. The reservation
+     * is released if fulfilment fails.
+     *
+     * @throws IllegalStateException if the service isn't running; the
+     *                               reservation has been released
+     */
+    public void submit(Order order, StockEngine.Reservation reservation) {
+        order.setReservation(reservation);
+        submit(order);
+    }
+
+    public void submit(Order order) {
+        submitting.incrementAndGet();
+        try {
+            if (!running) {
+                StockEngine.Reservation reservation = order.getReservation();
+                if (reservation != null) {
+                    reservation.release();
+                }
+                throw new IllegalStateException("Order fulfilment is not running; order "
+                        + order.getOrderId() + " was not placed");
+            }
+            order.markEnqueued(System.nanoTime());
+            queue.placeOrder(order);
+        } finally {
+            submitting.decrementAndGet();
+        }
+        if (idleWorkers.get() > 0) {
+            wakeWorkers(false);
+        }
+    }
+
+    /** Called on a worker thread after each order completes all steps. */
+    public void setListener(Consumer<Order> listener) {
+        this.listener = listener;
+    }
+
+    public int getQueueDepth() { return queue.size(); }
+    public long getFulfilledCount() { return fulfilled.sum(); }
+    public long getFailedCount() { return failed.sum(); }
+
+    /** Mean time from submit to completion, in milliseconds. */
+    public double getAverageLatencyMillis() {
+        long count = fulfilled.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / (count * 1_000_000.0);
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    private void wakeWorkers(boolean all) {
+        idleLock.lock();
+        try {
+            if (all) {
+                workAvailable.signalAll();
+            } else {
+                workAvailable.signal();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private void runWorker() {
+        List<Order> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            batch.clear();
+            if (queue.drainTo(batch, BATCH_SIZE) == 0) {
+                // A submit that saw the service running still gets its order handled
+                if (!running && submitting.get() == 0 && queue.isEmpty()) return;
+                if (Thread.currentThread().isInterrupted()) {
+                    LOG.warn("Worker interrupted; it has stopped");
+                    return;
+                }
+                awaitWork();
+                continue;
+            }
+            fulfil(batch);
+        }
+    }
+
+    private void awaitWork() {
+        idleLock.lock();
+        try {
+            idleWorkers.incrementAndGet();
+            // Re-check after announcing we're idle, so a concurrent submit can't be missed
+            if (queue.isEmpty() && running) {
+                workAvailable.await(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            idleWorkers.decrementAndGet();
+            idleLock.unlock();
+        }
+    }
+
+    // Runs each step over the whole batch; orders a step fails on drop out
+    private void fulfil(List<Order> batch) {
+        for (Step step : steps) {
+            if (batch.isEmpty()) return;
+            step.applyAll(batch, this::failed);
+        }
+        Consumer<Order> l = listener;
+        for (Order order : batch) {
+            long latency = System.nanoTime() - order.getEnqueuedAt();
+            fulfilled.increment();
+            totalLatencyNanos.add(latency);
+            LATENCY.record(latency);
+            long max;
+            while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) {
+                // retry
+            }
+            if (l != null) {
+                l.accept(order);
+            }
+        }
+    }
+
+    private void failed(Order order, Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt(); // let the worker loop see it
+        }
+        failed.increment();
+        StockEngine.Reservation reservation = order.getReservation();
+        if (reservation != null) {
+            reservation.release();
+        }
+        LOG.error("Failed to fulfil order {}", order.getOrderId(), e);
+    }
+
+    // ---- standard steps ----
+
+    /**
+     * Commits the stock reserved at checkout. Orders submitted without a
+     * reservation reserve their stock here, and fail if it has run out.
+     */
+    public static Step commitStock(StockEngine stock) {
+        return order -> {
+            StockEngine.Reservation reservation = order.getReservation();
+            if (reservation == null) {
+                reservation = stock.reserve(order.getCart());
+                order.setReservation(reservation);
+            }
+            if (!reservation.commit()) {
+                throw new IllegalStateException("stock reservation was released");
+            }
+        };
+    }
+
+    /**
+     * Records the orders in the order history and waits until their log
+     * writes are durable. A whole batch is appended before waiting, so it
+     * shares one group commit rather than waiting out a commit per order.
+     */
+    public static Step persistTo(OrderManager orderManager) {
+        return new Step() {
+            @Override
+            public void apply(Order order) throws Exception {
+                orderManager.saveOrder(order).get();
+            }
+
+            @Override
+            public void applyAll(List<Order> orders, BiConsumer<Order, Exception> failed) {
+                List<CompletableFuture<Void>> saves = new ArrayList<>(orders.size());
+                for (Order order : orders) {
+                    try {
+                        saves.add(orderManager.saveOrder(order));
+                    } catch (RuntimeException e) {
+                        saves.add(CompletableFuture.failedFuture(e));
+                    }
+                }
+                try {
+                    CompletableFuture.allOf(saves.toArray(new CompletableFuture<?>[0])).join();
+                } catch (CompletionException e) {
+                    // the failed saves are picked out below
+                }
+                Iterator<Order> it = orders.iterator();
+                for (CompletableFuture<Void> save : saves) {
+                    Order order = it.next();
+                    if (save.isCompletedExceptionally()) {
+                        it.remove();
+                        try {
+                            save.join();
+                        } catch (CompletionException e) {
+                            failed.accept(order, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Virtual threads need Java 21; look them up reflectively so the code
+     * still builds and runs on older JDKs.
+     */
+    private static ThreadFactory threadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                // not available on this JVM
+            }
+        }
+        return r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
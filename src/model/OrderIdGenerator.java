@@ -0,0 +1,106 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique, time-ordered order IDs without locking.
+ *
+ * An ID looks like {@code ORD1760000000000-001-0000042}: creation time in
+ * epoch milliseconds, the node ID (set with -Dorders.nodeId, 0-999) and a
+ * sequence number within that millisecond. All fields are fixed width, so
+ * IDs sort by creation time as plain strings, and IDs from the old
+ * {@code ORD<millis>} scheme sort before any new ID from the same millisecond.
+ *
+ * If a millisecond's sequence runs out, the generator moves on to the next
+ * millisecond early rather than waiting, so IDs keep increasing even if the
+ * system clock steps backwards.
+ */
+public final class OrderIdGenerator {
+    private static final String PREFIX = "ORD";
+    private static final int SEQUENCE_BITS = 20;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int MILLIS_DIGITS = 13;
+    private static final int SEQUENCE_DIGITS = 7; // fits SEQUENCE_MASK
+    private static final int NODE_DIGITS = 3;
+
+    // (millis << SEQUENCE_BITS) | sequence of the last ID handed out
+    private static final AtomicLong last = new AtomicLong();
+    private static final int nodeId = readNodeId();
+
+    private OrderIdGenerator() {}
+
+    private static int readNodeId() {
+        int id = Integer.getInteger("orders.nodeId", 0);
+        if (id < 0 || id > 999) {
+            throw new IllegalArgumentException("orders.nodeId must be between 0 and 999, got " + id);
+        }
+        return id;
+    }
+
+    public static String nextId() {
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+        long prev, next;
+        do {
+            prev = last.get();
+            next = Math.max(prev + 1, now);
+        } while (!last.compareAndSet(prev, next));
+        return format(next >>> SEQUENCE_BITS, next & SEQUENCE_MASK);
+    }
+
+    private static String format(long millis, long sequence) {
+        StringBuilder sb = new StringBuilder(PREFIX.length() + MILLIS_DIGITS + NODE_DIGITS + SEQUENCE_DIGITS + 2);
+        sb.append(PREFIX);
+        appendPadded(sb, millis, MILLIS_DIGITS);
+        sb.append('-');
+        appendPadded(sb, nodeId, NODE_DIGITS);
+        sb.append('-');
+        appendPadded(sb, sequence, SEQUENCE_DIGITS);
+        return sb.toString();
+    }
+
+    private static void appendPadded(StringBuilder sb, long value, int width) {
+        int start = sb.length();
+        for (int i = 0; i < width; i++) {
+            sb.append('0');
+        }
+        for (int i = start + width - 1; i >= start && value > 0; i--) {
+            sb.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /**
+     * Makes sure later IDs sort after {@code orderId}. Called for every order
+     * read back from the log, so a restart never reissues a persisted ID even
+     * if the clock has gone backwards. IDs in an unknown layout are ignored.
+     */
+    public static void observe(String orderId) {
+        if (orderId == null || !orderId.startsWith(PREFIX)) return;
+        int end = PREFIX.length() + MILLIS_DIGITS;
+        if (orderId.length() < end) return;
+        long millis = parseDigits(orderId, PREFIX.length(), end);
+        if (millis < 0 || millis > Long.MAX_VALUE >>> SEQUENCE_BITS) return;
+        long sequence = 0;
+        int seqStart = end + 1 + NODE_DIGITS + 1;
+        if (orderId.length() == seqStart + SEQUENCE_DIGITS) {
+            sequence = Math.max(0, parseDigits(orderId, seqStart, orderId.length()));
+        } else if (orderId.length() != end) {
+            return;
+        }
+        long seen = (millis << SEQUENCE_BITS) | sequence;
+        long prev;
+        while ((prev = last.get()) < seen && !last.compareAndSet(prev, seen)) {
+            // retry
+        }
+    }
+
+    private static long parseDigits(String s, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Location of an order's line items inside the order log, so they can be
+ * decoded the first time someone looks at the order's cart.
+ */
+class OrderItemsRef {
+    private final Path file;
+    private final OrderLogFormat format;
+    private final long offset;
+    private final int length;
+    private final int lines; // binary format only
+
+    OrderItemsRef(Path file, OrderLogFormat format, long offset, int length, int lines) {
+        this.file = file;
+        this.format = format;
+        this.offset = offset;
+        this.length = length;
+        this.lines = lines;
+    }
+
+    long getOffset() { return offset; }
+    int getLength() { return length; }
+    int getLines() { return lines; }
+
+    /**
+     * Reads the line items back from the order log.
+     *
+     * @throws UncheckedIOException if they can't be read
+     */
+    Cart load() {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    throw new IOException("Order log is shorter than expected");
+                }
+            }
+            buf.flip();
+            if (format == OrderLogFormat.BINARY) {
+                return new OrderBinaryCodec().decodeItems(buf, lines);
+            }
+            return OrderTextParser.readItems(buf.array());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read order items from " + file + " at offset " + offset, e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package model;
+
+import java.io.*;
+import java.nio.file.*;
+import logging.Log;
+
+/**
+ * Converts the order log between the text and binary formats.
+ *
+ * Usage: java -cp bin model.OrderLogConverter &lt;to-binary|to-text&gt; &lt;source&gt; &lt;target&gt;
+ */
+public class OrderLogConverter {
+    private static final Log LOG = Log.get(OrderLogConverter.class);
+
+    /**
+     * Reads a text order log and writes the same orders as a binary log.
+     * The target is written to a temporary file first and moved into place.
+     *
+     * @return number of orders converted
+     */
+    public static int textToBinary(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        int count = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            OrderTextParser parser = new OrderTextParser(in);
+            out.write(OrderBinaryCodec.header());
+            Order order;
+            while ((order = parser.next()) != null) {
+                out.write(OrderBinaryCodec.encode(order));
+                count++;
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Dumps a binary order log in the human-readable text format.
+     *
+     * @return number of orders converted
+     */
+    public static int binaryToText(Path source, Path target) throws IOException {
+        int[] count = {0};
+        try (BufferedWriter bw = Files.newBufferedWriter(target)) {
+            new OrderBinaryCodec().readAll(source, false, order -> {
+                try {
+                    bw.write(order.toString() + "\n\n");
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+            System.err.println("Usage: OrderLogConverter <to-binary|to-text> <source> <target>");
+            System.exit(1);
+        }
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        int count = args[0].equals("to-binary") ? textToBinary(source, target) : binaryToText(source, target);
+        LOG.info("Converted {} orders from {} to {}", count, source, target);
+        Log.flush();
+    }
+}
@@ -0,0 +1,11 @@
+package model;
+
+/**
+ * On-disk layouts for the order log.
+ */
+public enum OrderLogFormat {
+    /** Human-readable blocks as produced by {@link Order#toString()}. */
+    TEXT,
+    /** Versioned, length-prefixed binary records (see OrderBinaryCodec). */
+    BINARY
+}
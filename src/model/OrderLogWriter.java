@@ -0,0 +1,229 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import logging.Log;
+
+/**
+ * Group-commit writer for an append-only log file.
+ *
+ * Records are handed to a dedicated thread that keeps the file open,
+ * gathers whatever arrives within a short window (or until the batch is
+ * full), writes the batch in one call and fsyncs once. Each append returns
+ * a future that completes when its batch is on disk.
+ */
+class OrderLogWriter {
+    private static final Log LOG = Log.get(OrderLogWriter.class);
+
+    private static class Pending {
+        final byte[] record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Pending(byte[] record) { this.record = record; }
+    }
+
+    // Marks a flush request; completes once everything queued before it is durable
+    private static final byte[] FLUSH = new byte[0];
+
+    private final Path file;
+    private final byte[] header; // written when the file is new or empty; may be null
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    // The live writer thread, or null once close() has told it to stop
+    private volatile Thread thread;
+    private Thread shutdownHook;
+    // A close() is waiting for its thread to drain; appends wait until it is done
+    private boolean closing;
+
+    OrderLogWriter(Path file, byte[] header, long windowMillis, int maxBatch) {
+        this.file = file;
+        this.header = header;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Queues a record for the next batch. If a close is in progress this
+     * waits for it and then starts a new writer thread.
+     *
+     * @return a future completed when the record has been written and synced
+     */
+    CompletableFuture<Void> append(byte[] record) {
+        Pending p = new Pending(record);
+        synchronized (this) {
+            awaitClose();
+            if (thread == null) start();
+            pending.add(p);
+        }
+        return p.done;
+    }
+
+    /** Completes once every record appended so far is durable. */
+    CompletableFuture<Void> flush() {
+        synchronized (this) {
+            awaitClose(); // a finished close has written everything out
+            if (thread == null) return CompletableFuture.completedFuture(null);
+        }
+        return append(FLUSH);
+    }
+
+    /**
+     * Writes out anything pending, closes the file and stops the writer
+     * thread. A later append starts it again.
+     */
+    void close() {
+        Thread t;
+        Thread hook;
+        synchronized (this) {
+            awaitClose();
+            if (thread == null) return;
+            t = thread;
+            hook = shutdownHook;
+            thread = null;
+            shutdownHook = null;
+            closing = true;
+        }
+        try {
+            joinUninterruptibly(t);
+            if (hook != null && Thread.currentThread() != hook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // already shutting down
+                }
+            }
+        } finally {
+            synchronized (this) {
+                closeChannel();
+                closing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void awaitClose() {
+        boolean interrupted = false;
+        while (closing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // Until t exits nothing else may start a writer on this queue
+    private static void joinUninterruptibly(Thread t) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                t.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void start() {
+        Thread t = new Thread(this::run, "order-log-writer");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+        Thread hook = new Thread(this::close, "order-log-writer-shutdown");
+        try {
+            Runtime.getRuntime().addShutdownHook(hook);
+            shutdownHook = hook;
+        } catch (IllegalStateException e) {
+            // appended during shutdown; the caller's close() has to write it out
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        // Each thread stops once it is no longer the current writer and the queue is drained
+        while (thread == Thread.currentThread() || !pending.isEmpty()) {
+            try {
+                Pending first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? pending.poll(wait, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // keep going until close() says stop; pending records still need writing
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private synchronized void writeBatch(List<Pending> batch) {
+        try {
+            openChannel();
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long bytes = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+                bytes += batch.get(i).record.length;
+            }
+            long written = 0;
+            while (written < bytes) {
+                written += channel.write(buffers);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            closeChannel(); // reopen on the next batch
+            for (Pending p : batch) {
+                p.done.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Pending p : batch) {
+            p.done.complete(null);
+        }
+    }
+
+    private void openChannel() throws IOException {
+        if (channel != null) return;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (header != null && channel.size() == 0) {
+            channel.write(ByteBuffer.wrap(header));
+        }
+    }
+
+    /**
+     * Drops the open file handle so the next batch reopens the path. Needed
+     * after the file has been replaced underneath the writer.
+     */
+    synchronized void reopen() {
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close {}: {}", file, e.getMessage());
+        }
+        channel = null;
+    }
+}
@@ -1,187 +1,653 @@
 package model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import logging.Log;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 
-public class OrderManager {
+public class OrderManager implements Snapshottable {
+    private static final Log LOG = Log.get(OrderManager.class);
     private static final String ORDERS_FILE = "data/orders.txt";
-    private List<Order> allOrders;
+    private static final String ORDERS_BINARY_FILE = "data/orders.bin";
+    // -Dorders.format=text|binary picks the log format used by the default constructor
+    private static final String FORMAT_PROPERTY = "orders.format";
+    // -Dorders.debugText=true also appends every order to the text log when using binary
+    private static final String DEBUG_TEXT_PROPERTY = "orders.debugText";
+    // -Dorders.parallelLoad=true|false forces chunked loading of the text log on or off
+    private static final String PARALLEL_LOAD_PROPERTY = "orders.parallelLoad";
+    // -Dorders.loadThreads=N sets the number of parser threads (defaults to the core count)
+    private static final String LOAD_THREADS_PROPERTY = "orders.loadThreads";
+    // -Dorders.lazyItems=false loads every order's line items at startup
+    private static final String LAZY_ITEMS_PROPERTY = "orders.lazyItems";
+    // -Dorders.commitWindowMs=N: how long the log writer gathers orders into one fsync'd batch
+    private static final String COMMIT_WINDOW_PROPERTY = "orders.commitWindowMs";
+    private static final int MAX_COMMIT_BATCH = 512;
+    private static final String SNAPSHOT_SECTION = "orders";
+    // Bytes cut from the end of a log are kept in a file with this suffix
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+    // Save time runs from the call until the order is durable in the log
+    private static final Histogram SAVE_TIME = MetricsRegistry.getDefault().histogram("orders.save");
+    private static final Counter SAVE_FAILURES = MetricsRegistry.getDefault().counter("orders.saveFailures");
+    private static final Histogram LOAD_TIME = MetricsRegistry.getDefault().histogram("orders.load");
+    // Without an explicit setting, text logs at least this big are loaded in parallel
+    private static final long PARALLEL_LOAD_THRESHOLD = 8L * 1024 * 1024;
+
+    private final String ordersFile;
+    private final OrderLogFormat format;
+    // Human-readable copy of the binary log for debugging, or null
+    private final String textMirrorFile;
+    private final OrderLogWriter logWriter;
+    private final OrderLogWriter textMirrorWriter;
+    private final SnapshotManager snapshots; // null when not snapshotting
+    // Where the next appended record will start, so each saved order knows
+    // where its items are in the log; unreliable after a failed write
+    private long logEnd;
+    private volatile boolean logPositionsValid = true;
+    // Bumped each time the log is rewritten, which moves every order's items
+    private int logGeneration;
+    // Where the log ended once loaded, so records before it were written by an
+    // earlier run; -1 once a rewrite has moved them
+    private long loadedLogEnd = -1;
+    private ArrayList<Order> allOrders;
+    // Username -> that user's orders, oldest first (walked backwards for newest first)
+    private Map<String, List<Order>> ordersByUser;
 
     public OrderManager() {
+        this(defaultFormat() == OrderLogFormat.BINARY ? ORDERS_BINARY_FILE : ORDERS_FILE, defaultFormat(),
+                SnapshotManager.getDefault());
+    }
+
+    public OrderManager(String ordersFile) {
+        this(ordersFile, OrderLogFormat.TEXT);
+    }
+
+    public OrderManager(String ordersFile, OrderLogFormat format) {
+        this(ordersFile, format, null);
+    }
+
+    /**
+     * @param snapshots restores the orders from its last snapshot and keeps
+     *                  snapshotting them; null to always load the full log
+     */
+    public OrderManager(String ordersFile, OrderLogFormat format, SnapshotManager snapshots) {
+        this.ordersFile = ordersFile;
+        this.snapshots = snapshots;
+        this.format = format;
+        this.textMirrorFile = format == OrderLogFormat.BINARY && Boolean.getBoolean(DEBUG_TEXT_PROPERTY)
+                ? textSibling(ordersFile) : null;
+        long window = Long.getLong(COMMIT_WINDOW_PROPERTY, 2);
+        this.logWriter = new OrderLogWriter(Paths.get(ordersFile),
+                format == OrderLogFormat.BINARY ? OrderBinaryCodec.header() : null, window, MAX_COMMIT_BATCH);
+        this.textMirrorWriter = textMirrorFile == null ? null
+                : new OrderLogWriter(Paths.get(textMirrorFile), null, window, MAX_COMMIT_BATCH);
         allOrders = new ArrayList<>();
+        ordersByUser = new HashMap<>();
         loadOrders();
+        if (snapshots != null) {
+            snapshots.register(SNAPSHOT_SECTION, this);
+        }
+    }
+
+    private static OrderLogFormat defaultFormat() {
+        return System.getProperty(FORMAT_PROPERTY, "binary").equalsIgnoreCase("text")
+                ? OrderLogFormat.TEXT : OrderLogFormat.BINARY;
+    }
+
+    private static String textSibling(String file) {
+        int dot = file.lastIndexOf('.');
+        return (dot > file.lastIndexOf('/') ? file.substring(0, dot) : file) + ".txt";
     }
 
     private void loadOrders() {
         allOrders.clear();
-        System.out.println("Starting to load orders from file: " + ORDERS_FILE);
-        try (BufferedReader br = new BufferedReader(new FileReader(ORDERS_FILE))) {
-            StringBuilder currentOrder = new StringBuilder();
-            StringBuilder currentItems = new StringBuilder();
-            String line;
-            boolean readingOrder = false;
-            boolean readingItems = false;
-            int orderCount = 0;
-            int lineNumber = 0;
-
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                System.out.println("Line " + lineNumber + ": '" + line + "'");
-                
-                if (line.startsWith("Order ID:")) {
-                    // Start of a new order
-                    if (readingOrder && currentOrder.length() > 0) {
-                        // Process previous order
-                        System.out.println("Processing previous order...");
-                        processOrder(currentOrder.toString(), currentItems.toString());
-                        orderCount++;
-                    }
-                    currentOrder = new StringBuilder();
-                    currentItems = new StringBuilder();
-                    readingOrder = true;
-                    readingItems = false;
-                    currentOrder.append(line).append("\n");
-                    System.out.println("Started reading new order");
-                } else if (line.startsWith("User:")) {
-                    // Continue building current order
-                    currentOrder.append(line).append("\n");
-                    System.out.println("Added user to current order");
-                } else if (line.startsWith("Order at:")) {
-                    currentOrder.append(line).append("\n");
-                    readingItems = true;
-                    System.out.println("Started reading items");
-                } else if (line.equals("---")) {
-                    if (readingOrder && currentOrder.length() > 0) {
-                        // Process the complete order
-                        System.out.println("Processing complete order...");
-                        processOrder(currentOrder.toString(), currentItems.toString());
-                        orderCount++;
+        ordersByUser.clear();
+        long start = System.nanoTime();
+        boolean headersOnly = !"false".equalsIgnoreCase(System.getProperty(LAZY_ITEMS_PROPERTY));
+        Path path = Paths.get(ordersFile);
+        logEnd = -1;
+        try {
+            if (format == OrderLogFormat.BINARY) {
+                migrateTextLog();
+            }
+            long from = restoreSnapshot();
+            long bytes;
+            if (from >= 0) {
+                int restored = allOrders.size();
+                bytes = replayLog(from, headersOnly);
+                logEnd = dropTornTail(path, format == OrderLogFormat.BINARY ? from + bytes : -1);
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                LOG.info("Restored {} orders from snapshot and replayed {} ({} MB) from {} in {} ms",
+                        restored, allOrders.size() - restored, megabytes(bytes), ordersFile, elapsedMs);
+                return;
+            }
+            if (format == OrderLogFormat.BINARY) {
+                bytes = readBinaryLog(path, 0, headersOnly);
+            } else if (useParallelLoad()) {
+                ParallelOrderLoader loader = new ParallelOrderLoader(
+                        Integer.getInteger(LOAD_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                        headersOnly);
+                List<Order> loaded = loader.load(Paths.get(ordersFile));
+                allOrders.ensureCapacity(loaded.size());
+                for (Order order : loaded) {
+                    addLoadedOrder(order);
+                }
+                bytes = loader.getBytesRead();
+            } else {
+                try (InputStream in = new FileInputStream(ordersFile)) {
+                    OrderTextParser parser = new OrderTextParser(in, 0, headersOnly ? Paths.get(ordersFile) : null);
+                    Order order;
+                    while ((order = parser.next()) != null) {
+                        addLoadedOrder(order);
                     }
-                    currentOrder = new StringBuilder();
-                    currentItems = new StringBuilder();
-                    readingOrder = false;
-                    readingItems = false;
-                    System.out.println("Finished order, resetting");
-                } else if (readingItems && !line.trim().isEmpty()) {
-                    currentItems.append(line).append("\n");
+                    bytes = parser.getBytesRead();
                 }
             }
-            
-            // Process any remaining order at the end of file
-            if (readingOrder && currentOrder.length() > 0) {
-                System.out.println("Processing final order...");
-                processOrder(currentOrder.toString(), currentItems.toString());
-                orderCount++;
-            }
-            
-            System.out.println("Loaded " + orderCount + " orders from file");
-        } catch (IOException e) {
-            System.out.println("Orders file not found or empty - starting with no orders");
+            logEnd = dropTornTail(path, format == OrderLogFormat.BINARY ? bytes : -1);
+            long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            LOG.info("Loaded {} orders ({} MB) from {} in {} ms ({} orders/s)",
+                    allOrders.size(), megabytes(bytes), ordersFile,
+                    elapsedMs, allOrders.size() * 1000L / elapsedMs);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            LOG.info("Orders file not found - starting with no orders");
             // File might not exist yet, which is fine for new installations
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error loading orders from {}", ordersFile, e);
+        } finally {
+            if (logEnd < 0) {
+                logEnd = path.toFile().length();
+            }
+            loadedLogEnd = logEnd;
+            LOAD_TIME.recordSince(start);
         }
     }
 
-    private void processOrder(String orderData, String itemsData) {
+    /**
+     * Reads the binary log from {@code from}. If a record can't be read,
+     * the orders before it are kept and it and everything after it are
+     * moved to the side file for recovery by hand, so the log can be
+     * appended to again.
+     *
+     * @return the end of the last record read
+     */
+    private long readBinaryLog(Path path, long from, boolean headersOnly) throws IOException {
         try {
-            // Parse the order header
-            String[] lines = orderData.split("\n");
-            String orderId = "";
-            String username = "";
-            String timestampStr = "";
-            double total = 0.0;
-
-            for (String line : lines) {
-                if (line.startsWith("Order ID:")) {
-                    orderId = line.substring("Order ID: ".length()).trim();
-                } else if (line.startsWith("User:")) {
-                    username = line.substring("User: ".length()).trim();
-                } else if (line.startsWith("Order at:")) {
-                    String[] parts = line.split(", Total: \\$");
-                    if (parts.length == 2) {
-                        timestampStr = parts[0].substring("Order at: ".length()).trim();
-                        total = Double.parseDouble(parts[1].trim());
-                    }
-                }
+            return new OrderBinaryCodec().readAll(path, from, headersOnly, this::addLoadedOrder);
+        } catch (CorruptOrderLogException e) {
+            LOG.error("{}; the rest of the log is moved to {}", e.getMessage(), path + CORRUPT_SUFFIX);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                moveTailAside(ch, path, e.getOffset());
             }
+            return e.getOffset();
+        }
+    }
 
-            System.out.println("Processing order - ID: '" + orderId + "', User: '" + username + "', Total: " + total);
-
-            if (!orderId.isEmpty() && !username.isEmpty()) {
-                // Create a temporary cart to hold the items
-                Cart tempCart = new Cart();
-                String[] itemLines = itemsData.split("\n");
-                for (String itemLine : itemLines) {
-                    if (itemLine.equals("---") || itemLine.trim().isEmpty()) continue;
-                    String[] itemParts = itemLine.split(",");
-                    if (itemParts.length == 4) {
-                        String id = itemParts[0];
-                        String name = itemParts[1];
-                        int quantity = Integer.parseInt(itemParts[2]);
-                        double price = Double.parseDouble(itemParts[3]);
-                        Product product = new Product(id, name, price, 0);
-                        tempCart.addItem(product, quantity);
-                    }
-                }
+    /**
+     * Cuts off a record torn by a crash mid-append, so new records are not
+     * written after it, where the next load would lose them too. The cut
+     * bytes are kept in the side file rather than thrown away.
+     *
+     * @param complete end of the last complete record of a binary log, or
+     *                 -1 for a text log, which is cut after its last newline
+     * @return the offset the next record is written at
+     */
+    private static long dropTornTail(Path path, long complete) throws IOException {
+        if (!Files.exists(path)) return 0;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            long end = complete >= 0 ? complete : lastLineEnd(ch, size);
+            if (end < size) {
+                LOG.warn("Moving {} bytes of a torn record at the end of {} to {}", size - end, path, path + CORRUPT_SUFFIX);
+                moveTailAside(ch, path, end);
+            }
+            return end;
+        }
+    }
+
+    // Appends the log from 'from' on to the side file, makes that durable,
+    // and only then cuts it from the log
+    private static void moveTailAside(FileChannel ch, Path path, long from) throws IOException {
+        Path aside = Paths.get(path + CORRUPT_SUFFIX);
+        try (FileChannel out = FileChannel.open(aside, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            long size = ch.size();
+            for (long pos = from; pos < size; ) {
+                pos += ch.transferTo(pos, size - pos, out);
+            }
+            out.force(true);
+        }
+        ch.truncate(from);
+        ch.force(true);
+    }
+
+    // Offset just past the last newline, or 0 if there is none
+    private static long lastLineEnd(FileChannel ch, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = size;
+        while (pos > 0) {
+            int n = (int) Math.min(buf.capacity(), pos);
+            pos -= n;
+            buf.clear().limit(n);
+            while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0) { }
+            for (int i = n - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+        }
+        return 0;
+    }
 
-                // Create and add the order
-                Order order = new Order(username, tempCart, total);
-                order.setOrderId(orderId);
-                // Parse timestamp (simplified - you might want to use a proper date parser)
-                allOrders.add(order);
-                System.out.println("Successfully processed order for user: " + username);
+    // Rounded to a tenth, for log lines
+    private static double megabytes(long bytes) {
+        return Math.round(bytes / (1024.0 * 1024.0) * 10) / 10.0;
+    }
+
+    /**
+     * Loads the orders saved in the last snapshot, if it still matches the
+     * log.
+     *
+     * @return the log offset to replay from, or -1 to load the whole log
+     */
+    private long restoreSnapshot() {
+        if (snapshots == null) return -1;
+        ByteBuffer in = snapshots.restore(SNAPSHOT_SECTION);
+        if (in == null) return -1;
+        Path path = Paths.get(ordersFile);
+        try {
+            long from = SnapshotManager.readLogPosition(in, path);
+            if (from < 0) {
+                LOG.info("Order snapshot is out of date - loading the full log");
+                return -1;
+            }
+            int count = in.getInt();
+            allOrders.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                addLoadedOrder(restoreOrder(in, path));
+            }
+            return from;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable order snapshot: {}", e.getMessage());
+            allOrders.clear();
+            ordersByUser.clear();
+            return -1;
+        }
+    }
+
+    private Order restoreOrder(ByteBuffer in, Path path) {
+        String orderId = SnapshotManager.readString(in);
+        String username = SnapshotManager.readString(in);
+        Date timestamp = new Date(in.getLong());
+        long total = in.getLong();
+        int itemCount = in.getInt();
+        if (in.get() != 0) {
+            OrderItemsRef items = new OrderItemsRef(path, format, in.getLong(), in.getInt(), in.getInt());
+            return new Order(orderId, username, total, timestamp, itemCount, items);
+        }
+        Cart cart = new Cart();
+        int lines = in.getInt();
+        for (int j = 0; j < lines; j++) {
+            String id = SnapshotManager.readString(in);
+            String name = SnapshotManager.readString(in);
+            int quantity = in.getInt();
+            cart.appendItem(ProductRef.of(id, name), in.getLong(), quantity);
+        }
+        return new Order(orderId, username, cart, total, timestamp);
+    }
+
+    /**
+     * Loads the orders appended after {@code from}.
+     *
+     * @return bytes replayed
+     */
+    private long replayLog(long from, boolean headersOnly) throws IOException {
+        Path path = Paths.get(ordersFile);
+        if (format == OrderLogFormat.BINARY) {
+            long end = readBinaryLog(path, from, headersOnly);
+            return Math.max(0, end - from);
+        }
+        try (FileInputStream in = new FileInputStream(ordersFile)) {
+            in.getChannel().position(from);
+            OrderTextParser parser = new OrderTextParser(in, from, headersOnly ? path : null);
+            Order order;
+            while ((order = parser.next()) != null) {
+                addLoadedOrder(order);
+            }
+            return parser.getBytesRead();
+        }
+    }
+
+    /**
+     * Writes every order's header and where its items are in the log, plus
+     * how far the log reached. Orders whose items aren't in the log (loaded
+     * eagerly) are written out in full.
+     */
+    @Override
+    public void writeSnapshot(DataOutputStream out) throws IOException {
+        // Take the position and the orders it covers under the lock; waiting
+        // for the log and serialising happen outside it, so saves carry on
+        long end;
+        int generation;
+        List<Order> orders;
+        CompletableFuture<Void> flushed;
+        synchronized (this) {
+            checkLogPositions();
+            end = logEnd;
+            generation = logGeneration;
+            orders = new ArrayList<>(allOrders);
+            flushed = logWriter.flush();
+        }
+        // The snapshot must not claim orders that are still queued for the log
+        flushed.join();
+        checkLogPositions();
+        SnapshotManager.writeLogPosition(out, Paths.get(ordersFile), end);
+        out.writeInt(orders.size());
+        for (Order order : orders) {
+            SnapshotManager.writeString(out, order.getOrderId());
+            SnapshotManager.writeString(out, order.getUsername());
+            out.writeLong(order.getTimestamp().getTime());
+            out.writeLong(order.getTotalCents());
+            out.writeInt(order.getItemCount());
+            OrderItemsRef items = order.getItemsRef();
+            out.writeByte(items != null ? 1 : 0);
+            if (items != null) {
+                out.writeLong(items.getOffset());
+                out.writeInt(items.getLength());
+                out.writeInt(items.getLines());
             } else {
-                System.out.println("Skipping order - missing orderId or username");
+                Cart cart = order.getCart();
+                out.writeInt(cart.getLineCount());
+                for (CartItem item = cart.getHead(); item != null; item = item.getNext()) {
+                    SnapshotManager.writeString(out, item.getProductId());
+                    SnapshotManager.writeString(out, item.getProductName());
+                    out.writeInt(item.getQuantity());
+                    out.writeLong(item.getPriceCents());
+                }
             }
-        } catch (Exception e) {
-            // Skip malformed orders
-            System.err.println("Error processing order: " + e.getMessage());
-            e.printStackTrace();
         }
+        checkGeneration(generation);
     }
 
-    public void saveOrder(Order order) {
+    /**
+     * Writes how far the order log reaches, once that much is durable, into
+     * another store's snapshot section. Read it back with
+     * {@link #ordersLoggedSince(ByteBuffer)}.
+     */
+    void writeLogMark(DataOutputStream out) throws IOException {
+        long end;
+        int generation;
+        CompletableFuture<Void> flushed;
+        synchronized (this) {
+            checkLogPositions();
+            end = logEnd;
+            generation = logGeneration;
+            flushed = logWriter.flush();
+        }
+        flushed.join();
+        checkLogPositions();
+        SnapshotManager.writeLogPosition(out, Paths.get(ordersFile), end);
+        checkGeneration(generation);
+    }
+
+    /**
+     * Reads back the orders an earlier run logged after a mark written by
+     * {@link #writeLogMark(DataOutputStream)}, without adding them to this
+     * manager. Orders saved since this manager loaded aren't included.
+     *
+     * @return the orders, or null if the log has been replaced or rewritten
+     *         since the mark
+     */
+    List<Order> ordersLoggedSince(ByteBuffer mark) throws IOException {
+        Path path = Paths.get(ordersFile);
+        long until;
+        synchronized (this) {
+            until = loadedLogEnd;
+        }
+        long from = SnapshotManager.readLogPosition(mark, path);
+        if (from < 0 || until < from) return null;
+        List<Order> orders = new ArrayList<>();
+        if (format == OrderLogFormat.BINARY) {
+            new OrderBinaryCodec().readAll(path, from, until, false, orders::add);
+            return orders;
+        }
+        // Only what was logged since the last snapshot, so small enough to read whole
+        ByteBuffer tail = ByteBuffer.allocate((int) (until - from));
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (tail.hasRemaining() && ch.read(tail, from + tail.position()) > 0) {
+                // keep reading
+            }
+        }
+        OrderTextParser parser = new OrderTextParser(new ByteArrayInputStream(tail.array()), from, null);
+        Order order;
+        while ((order = parser.next()) != null) {
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    private void checkLogPositions() throws IOException {
+        if (!logPositionsValid) {
+            throw new IOException("order log positions are unknown after a failed write");
+        }
+    }
+
+    private synchronized void checkGeneration(int generation) throws IOException {
+        if (logGeneration != generation) {
+            throw new IOException("order log was rewritten while the snapshot was taken");
+        }
+    }
+
+    /**
+     * Adds the order to the history and queues it for the order log.
+     *
+     * @return a future that completes once the order is durably on disk;
+     *         callers that don't need to wait can ignore it
+     */
+    public synchronized CompletableFuture<Void> saveOrder(Order order) {
+        long start = System.nanoTime();
         allOrders.add(order);
-        appendOrderToFile(order);
+        indexOrder(order);
+        return appendOrderToFile(order, start);
     }
 
-    private void appendOrderToFile(Order order) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(ORDERS_FILE, true))) {
-            bw.write(order.toString() + "\n\n");
-            System.out.println("Order saved successfully: " + order.getOrderId() + " for user: " + order.getUsername());
-        } catch (IOException e) {
-            System.err.println("Failed to save order to file: " + e.getMessage());
-            e.printStackTrace();
+    private void indexOrder(Order order) {
+        List<Order> list = ordersByUser.computeIfAbsent(order.getUsername(), k -> new ArrayList<>());
+        int pos = list.size();
+        // Orders almost always arrive in time order, so this is normally a plain append
+        if (pos > 0 && list.get(pos - 1).getTimestamp().compareTo(order.getTimestamp()) > 0) {
+            int lo = 0, hi = pos;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (list.get(mid).getTimestamp().compareTo(order.getTimestamp()) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            pos = lo;
+        }
+        list.add(pos, order);
+    }
+
+    private void addLoadedOrder(Order order) {
+        allOrders.add(order);
+        indexOrder(order);
+        // Never hand out an ID that is already in the log
+        OrderIdGenerator.observe(order.getOrderId());
+    }
+
+    private boolean useParallelLoad() {
+        String setting = System.getProperty(PARALLEL_LOAD_PROPERTY);
+        if (setting != null) {
+            return Boolean.parseBoolean(setting);
+        }
+        return Runtime.getRuntime().availableProcessors() > 1
+                && new File(ordersFile).length() >= PARALLEL_LOAD_THRESHOLD;
+    }
+
+    /**
+     * First start with the binary format: carry the existing text log over.
+     */
+    private void migrateTextLog() throws IOException {
+        Path binary = Paths.get(ordersFile);
+        Path text = Paths.get(textSibling(ordersFile));
+        if (!Files.exists(binary) && Files.exists(text) && !binary.equals(text)) {
+            int count = OrderLogConverter.textToBinary(text, binary);
+            LOG.info("Converted {} orders from {} to {}", count, text, binary);
+        }
+    }
+
+    private CompletableFuture<Void> appendOrderToFile(Order order, long start) {
+        Path path = Paths.get(ordersFile);
+        byte[] record;
+        if (format == OrderLogFormat.BINARY) {
+            record = OrderBinaryCodec.encode(order);
+            if (logEnd == 0) {
+                logEnd = OrderBinaryCodec.HEADER_SIZE; // the writer starts a new file with the header
+            }
+            order.setItemsRef(OrderBinaryCodec.locateItems(path, logEnd, record));
+        } else {
+            record = textRecord(order);
+            order.setItemsRef(OrderTextParser.locateItems(path, logEnd, record));
+        }
+        logEnd += record.length;
+        if (textMirrorWriter != null) {
+            textMirrorWriter.append(textRecord(order));
+        }
+        return logWriter.append(record).whenComplete((v, e) -> {
+            SAVE_TIME.recordSince(start);
+            if (e == null) {
+                LOG.debug("Order saved: {} for user {}", order.getOrderId(), order.getUsername());
+            } else {
+                logPositionsValid = false;
+                SAVE_FAILURES.increment();
+                LOG.error("Failed to save order {} to {}", order.getOrderId(), ordersFile, e);
+            }
+        });
+    }
+
+    private static byte[] textRecord(Order order) {
+        return (order.toString() + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for queued orders to reach the disk and releases the log files.
+     * Saving again afterwards reopens them.
+     */
+    public void close() {
+        logWriter.close();
+        if (textMirrorWriter != null) {
+            textMirrorWriter.close();
+        }
+        if (snapshots != null) {
+            snapshots.snapshotNow();
+            snapshots.unregister(SNAPSHOT_SECTION, this);
         }
     }
 
     private void saveOrders() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(ORDERS_FILE))) {
+        // Header-only orders point into the file about to be replaced, so read their items first
+        try {
             for (Order order : allOrders) {
-                bw.write(order.toString() + "\n\n");
+                order.getCart();
+            }
+        } catch (UncheckedIOException e) {
+            // Rewriting now would drop those items for good; keep the log as it is
+            LOG.error("Not rewriting {}: an order's items can't be read", ordersFile, e);
+            return;
+        }
+        // Let queued appends land first; they would be lost once the file is replaced
+        logWriter.flush().join();
+        if (textMirrorWriter != null) {
+            textMirrorWriter.flush().join();
+        }
+        // Every order gets a new position in the rewritten log
+        logPositionsValid = false;
+        logGeneration++;
+        loadedLogEnd = -1;
+        try {
+            if (format == OrderLogFormat.BINARY) {
+                Path target = Paths.get(ordersFile);
+                Path tmp = Paths.get(ordersFile + ".tmp");
+                long pos = OrderBinaryCodec.HEADER_SIZE;
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    out.write(OrderBinaryCodec.header());
+                    for (Order order : allOrders) {
+                        byte[] record = OrderBinaryCodec.encode(order);
+                        order.setItemsRef(OrderBinaryCodec.locateItems(target, pos, record));
+                        out.write(record);
+                        pos += record.length;
+                    }
+                }
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logEnd = pos;
+            } else {
+                logEnd = writeText(ordersFile, true);
+            }
+            logPositionsValid = true;
+            if (textMirrorFile != null) {
+                writeText(textMirrorFile, false);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.error("Failed to rewrite {}", ordersFile, e);
+        } finally {
+            logWriter.reopen();
+            if (textMirrorWriter != null) {
+                textMirrorWriter.reopen();
+            }
+        }
+        if (snapshots != null) {
+            // The old snapshot points into the replaced log
+            snapshots.requestSnapshot();
         }
     }
 
-    public List<Order> getUserOrders(String username) {
-        List<Order> userOrders = new ArrayList<>();
-        for (Order order : allOrders) {
-            if (order.getUsername().equals(username)) {
-                userOrders.add(order);
+    /**
+     * Replaces the file with all orders in text form.
+     *
+     * @param locateItems whether to point each order at its items in the new file
+     * @return size of the new file
+     */
+    private long writeText(String file, boolean locateItems) throws IOException {
+        Path target = Paths.get(file);
+        Path tmp = Paths.get(file + ".tmp");
+        long pos = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            for (Order order : allOrders) {
+                byte[] record = textRecord(order);
+                if (locateItems) {
+                    order.setItemsRef(OrderTextParser.locateItems(target, pos, record));
+                }
+                out.write(record);
+                pos += record.length;
             }
         }
-        // Sort by timestamp (newest first)
-        userOrders.sort((o1, o2) -> o2.getTimestamp().compareTo(o1.getTimestamp()));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return pos;
+    }
+
+    public synchronized List<Order> getUserOrders(String username) {
+        List<Order> list = ordersByUser.get(username);
+        if (list == null) return new ArrayList<>();
+        // Newest first
+        List<Order> userOrders = new ArrayList<>(list.size());
+        for (int i = list.size() - 1; i >= 0; i--) {
+            userOrders.add(list.get(i));
+        }
         return userOrders;
     }
 
-    public List<Order> getAllOrders() {
+    public synchronized List<Order> getAllOrders() {
         return new ArrayList<>(allOrders);
     }
 
-    public void clearOrders() {
+    public synchronized void clearOrders() {
         allOrders.clear();
+        ordersByUser.clear();
         saveOrders();
     }
 
@@ -189,21 +655,18 @@ public class OrderManager {
      * Rebuilds the orders file from memory - useful for maintenance
      * This ensures file consistency with in-memory data
      */
-    public void rebuildOrdersFile() {
+    public synchronized void rebuildOrdersFile() {
         saveOrders();
     }
 
     /**
      * Debug method to show current orders in memory
      */
-    public void debugPrintOrders() {
-        System.out.println("=== Current Orders in Memory ===");
-        System.out.println("Total orders: " + allOrders.size());
+    public synchronized void debugPrintOrders() {
+        LOG.info("Total orders in memory: {}", allOrders.size());
         for (Order order : allOrders) {
-            System.out.println("Order ID: " + order.getOrderId() + 
-                             ", User: " + order.getUsername() + 
-                             ", Total: $" + String.format("%.2f", order.getTotal()));
+            LOG.info("Order ID: {}, User: {}, Total: ${}",
+                    order.getOrderId(), order.getUsername(), Money.format(order.getTotalCents()));
         }
-        System.out.println("================================");
     }
 }
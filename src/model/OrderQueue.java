@@ -1,36 +1,118 @@
 package model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FIFO queue of placed orders, safe for any number of producer and
+ * consumer threads. This is a lock-free Michael-Scott linked queue: head
+ * always points at a dummy node whose successor is the front order, and
+ * both ends are moved with compare-and-set only.
+ */
 public class OrderQueue {
     private static class Node {
         Order order;
-        Node next;
+        volatile Node next;
         Node(Order order) { this.order = order; }
     }
-    private Node front, rear;
+
+    private static final VarHandle NEXT;
+    static {
+        try {
+            NEXT = MethodHandles.lookup().findVarHandle(Node.class, "next", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final AtomicReference<Node> front;
+    private final AtomicReference<Node> rear;
+    // Depth is placed minus processed; LongAdder keeps producers from contending on a counter
+    private final LongAdder placed = new LongAdder();
+    private final LongAdder processed = new LongAdder();
 
     public OrderQueue() {
-        front = rear = null;
+        Node dummy = new Node(null);
+        front = new AtomicReference<>(dummy);
+        rear = new AtomicReference<>(dummy);
     }
 
     public void placeOrder(Order order) {
         Node node = new Node(order);
-        if (rear == null) {
-            front = rear = node;
-        } else {
-            rear.next = node;
-            rear = node;
+        while (true) {
+            Node last = rear.get();
+            Node next = last.next;
+            if (next == null) {
+                if (NEXT.compareAndSet(last, null, node)) {
+                    rear.compareAndSet(last, node); // fine if someone else already moved it
+                    placed.increment();
+                    return;
+                }
+            } else {
+                // Rear is lagging behind; help it along and retry
+                rear.compareAndSet(last, next);
+            }
         }
     }
 
     public Order processNextOrder() {
-        if (front == null) return null;
-        Order order = front.order;
-        front = front.next;
-        if (front == null) rear = null;
-        return order;
+        while (true) {
+            Node first = front.get();
+            Node next = first.next;
+            if (next == null) return null;
+            Order order = next.order;
+            if (front.compareAndSet(first, next)) {
+                next.order = null; // next is the new dummy
+                processed.increment();
+                return order;
+            }
+        }
+    }
+
+    /**
+     * Removes up to {@code max} orders from the front of the queue and adds
+     * them to {@code target} in FIFO order. Each batch is unlinked with a
+     * single compare-and-set.
+     *
+     * @return number of orders moved
+     */
+    public int drainTo(Collection<? super Order> target, int max) {
+        int taken = 0;
+        while (taken < max) {
+            Node first = front.get();
+            Node last = first;
+            int n = 0;
+            Node next;
+            while (n < max - taken && (next = last.next) != null) {
+                last = next;
+                n++;
+            }
+            if (n == 0) break;
+            if (front.compareAndSet(first, last)) {
+                Node node = first;
+                do {
+                    node = node.next;
+                    target.add(node.order);
+                    node.order = null;
+                } while (node != last);
+                taken += n;
+                processed.add(n);
+            }
+        }
+        return taken;
     }
 
     public boolean isEmpty() {
-        return front == null;
+        return front.get().next == null;
+    }
+
+    /**
+     * Approximate number of orders waiting; exact when the queue is quiet.
+     */
+    public int size() {
+        return (int) Math.max(0, placed.sum() - processed.sum());
     }
 }
@@ -0,0 +1,390 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Single-pass parser for the text order log written by {@link Order#toString()}.
+ *
+ * Works directly on the raw bytes of the file: lines are located in an
+ * internal buffer and fields are decoded in place, so the only objects
+ * created per order are the strings it keeps and the order itself. When
+ * given the source file it restores headers only, and each order's line
+ * items are decoded from the file when first needed.
+ */
+class OrderTextParser {
+    private static final byte[] ORDER_ID = "Order ID:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] USER = "User:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ORDER_AT = "Order at:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOTAL = ", Total: $".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "---".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private final InputStream in;
+    // File the stream comes from, for header-only loading; null to load everything
+    private final Path source;
+    private byte[] buf = new byte[64 * 1024];
+    // File offset of buf[0]
+    private long base;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private long bytesRead;
+
+    // Current line, as a range of buf with the line terminator stripped
+    private int lineStart;
+    private int lineEnd;
+
+    // Order being assembled
+    private String orderId;
+    private String username;
+    private Date timestamp;
+    private long total;
+    private Cart cart;
+    private boolean readingOrder;
+    private boolean readingItems;
+    private boolean malformed;
+    private long itemsStart;
+    private int units;
+    private int lines;
+
+    // Last time zone abbreviation seen; files are nearly always written in one zone
+    private byte[] zoneName = new byte[0];
+    private ZoneId zone;
+
+    OrderTextParser(InputStream in) {
+        this(in, 0, null);
+    }
+
+    /**
+     * @param startOffset file offset of the first byte the stream returns
+     * @param source      the file being read, to restore headers only and
+     *                    decode line items on demand; null to read everything
+     */
+    OrderTextParser(InputStream in, long startOffset, Path source) {
+        this.in = in;
+        this.base = startOffset;
+        this.source = source;
+    }
+
+    /**
+     * Decodes a block of item lines, as referenced by a header-only order.
+     */
+    static Cart readItems(byte[] data) throws IOException {
+        OrderTextParser parser = new OrderTextParser(new ByteArrayInputStream(data));
+        parser.cart = new Cart();
+        parser.readingItems = true;
+        while (parser.readLine() && !parser.isLine(END)) {
+            try {
+                parser.parseItem();
+            } catch (NumberFormatException e) {
+                // already validated when the header was loaded
+            }
+        }
+        return parser.cart;
+    }
+
+    /**
+     * Where the line items of a record produced by {@link Order#toString()}
+     * end up once it is written at {@code recordOffset}; null if it has none.
+     * Items follow the "Order at:" line and run up to the "---" line.
+     */
+    static OrderItemsRef locateItems(Path file, long recordOffset, byte[] record) {
+        int start = 0;
+        for (int newlines = 0; newlines < 3 && start < record.length; start++) {
+            if (record[start] == '\n') newlines++;
+        }
+        int end = record.length;
+        while (end > start && (record[end - 1] == '\n' || record[end - 1] == '\r')) end--;
+        end -= END.length;
+        if (end <= start) return null;
+        return new OrderItemsRef(file, OrderLogFormat.TEXT, recordOffset + start, end - start, 0);
+    }
+
+    long getBytesRead() { return bytesRead; }
+
+    /**
+     * Returns the next complete order in the stream, or null at end of input.
+     * Orders without an ID or user, or with unreadable numbers, are skipped;
+     * item lines that don't have exactly four fields are ignored.
+     */
+    Order next() throws IOException {
+        while (readLine()) {
+            if (startsWith(ORDER_ID)) {
+                Order previous = readingOrder ? finishOrder(base + lineStart) : null;
+                startOrder();
+                orderId = field(ORDER_ID.length, lineEnd);
+                if (previous != null) return previous;
+            } else if (startsWith(USER)) {
+                username = field(USER.length, lineEnd);
+            } else if (startsWith(ORDER_AT)) {
+                try {
+                    parseOrderAt();
+                } catch (NumberFormatException e) {
+                    malformed = true;
+                }
+                readingItems = true;
+                itemsStart = base + pos;
+            } else if (isLine(END)) {
+                Order order = readingOrder ? finishOrder(base + lineStart) : null;
+                readingOrder = false;
+                readingItems = false;
+                if (order != null) return order;
+            } else if (readingItems) {
+                try {
+                    parseItem();
+                } catch (NumberFormatException e) {
+                    malformed = true;
+                }
+            }
+        }
+        if (readingOrder) {
+            readingOrder = false;
+            return finishOrder(base + pos);
+        }
+        return null;
+    }
+
+    private void startOrder() {
+        orderId = "";
+        username = "";
+        timestamp = null;
+        total = 0;
+        cart = source == null ? new Cart() : null;
+        itemsStart = -1;
+        units = 0;
+        lines = 0;
+        readingOrder = true;
+        readingItems = false;
+        malformed = false;
+    }
+
+    private Order finishOrder(long itemsEnd) {
+        if (malformed || orderId.isEmpty() || username.isEmpty()) return null;
+        Date when = timestamp != null ? timestamp : new Date();
+        if (cart != null) {
+            return new Order(orderId, username, cart, total, when);
+        }
+        if (itemsStart < 0 || lines == 0) {
+            return new Order(orderId, username, new Cart(), total, when);
+        }
+        OrderItemsRef items = new OrderItemsRef(source, OrderLogFormat.TEXT,
+                itemsStart, (int) (itemsEnd - itemsStart), 0);
+        return new Order(orderId, username, total, when, units, items);
+    }
+
+    private void parseOrderAt() {
+        int totalAt = indexOf(TOTAL, lineStart + ORDER_AT.length, lineEnd);
+        if (totalAt < 0) return;
+        int start = skipSpaces(lineStart + ORDER_AT.length, totalAt);
+        int end = trimEnd(start, totalAt);
+        timestamp = parseDate(start, end);
+        int totalStart = skipSpaces(totalAt + TOTAL.length, lineEnd);
+        total = Money.parse(buf, totalStart, trimEnd(totalStart, lineEnd));
+    }
+
+    private void parseItem() {
+        int c1 = indexOf((byte) ',', lineStart, lineEnd);
+        if (c1 < 0) return;
+        int c2 = indexOf((byte) ',', c1 + 1, lineEnd);
+        if (c2 < 0) return;
+        int c3 = indexOf((byte) ',', c2 + 1, lineEnd);
+        if (c3 < 0 || indexOf((byte) ',', c3 + 1, lineEnd) >= 0) return;
+        int quantity = (int) parseLong(c2 + 1, c3);
+        long price = Money.parse(buf, c3 + 1, trimEnd(c3 + 1, lineEnd));
+        if (cart == null) {
+            units += quantity; // header-only: just validate and count
+            lines++;
+            return;
+        }
+        String id = new String(buf, lineStart, c1 - lineStart, StandardCharsets.UTF_8);
+        String name = new String(buf, c1 + 1, c2 - c1 - 1, StandardCharsets.UTF_8);
+        cart.appendItem(ProductRef.of(id, name), price, quantity);
+    }
+
+    // ---- line handling ----
+
+    private boolean readLine() throws IOException {
+        int nl;
+        while ((nl = indexOf((byte) '\n', pos, limit)) < 0) {
+            if (eof) {
+                if (pos == limit) return false;
+                nl = limit; // last line without a terminator
+                break;
+            }
+            fill();
+        }
+        lineStart = pos;
+        lineEnd = nl;
+        if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') lineEnd--;
+        pos = nl < limit ? nl + 1 : limit;
+        return true;
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            base += pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+            bytesRead += n;
+        }
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineEnd - lineStart < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[lineStart + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean isLine(byte[] text) {
+        return lineEnd - lineStart == text.length && startsWith(text);
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(byte[] text, int from, int to) {
+        outer:
+        for (int i = from; i <= to - text.length; i++) {
+            for (int j = 0; j < text.length; j++) {
+                if (buf[i + j] != text[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int from, int to) {
+        while (from < to && (buf[from] == ' ' || buf[from] == '\t')) from++;
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (buf[to - 1] == ' ' || buf[to - 1] == '\t')) to--;
+        return to;
+    }
+
+    private String field(int offset, int end) {
+        int start = skipSpaces(lineStart + offset, end);
+        end = trimEnd(start, end);
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // ---- numbers ----
+
+    private long parseLong(int from, int to) {
+        from = skipSpaces(from, to);
+        to = trimEnd(from, to);
+        if (from == to) throw new NumberFormatException("empty number");
+        boolean negative = buf[from] == '-';
+        if (negative) from++;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException(new String(buf, from, to - from, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    // ---- timestamps ----
+
+    /**
+     * Parses the Date.toString() layout, e.g. "Sat Oct 18 14:03:22 MYT 2026".
+     * Falls back to SimpleDateFormat for time zone names it can't resolve.
+     */
+    private Date parseDate(int from, int to) {
+        // dow(3) ' ' mon(3) ' ' dd ' ' HH:mm:ss ' ' zone ' ' yyyy
+        int zoneStart = from + 20;
+        int zoneEnd = indexOf((byte) ' ', zoneStart, to);
+        if (to - from < 28 || zoneEnd < 0) return null;
+        try {
+            int month = parseMonth(from + 4);
+            int day = (int) parseLong(from + 8, from + 10);
+            int hour = (int) parseLong(from + 11, from + 13);
+            int minute = (int) parseLong(from + 14, from + 16);
+            int second = (int) parseLong(from + 17, from + 19);
+            int year = (int) parseLong(zoneEnd + 1, to);
+            ZoneId zoneId = resolveZone(zoneStart, zoneEnd);
+            if (month > 0 && zoneId != null) {
+                long millis = LocalDateTime.of(year, month, day, hour, minute, second)
+                        .atZone(zoneId).toInstant().toEpochMilli();
+                return new Date(millis);
+            }
+        } catch (RuntimeException e) {
+            // fall through to the slow path
+        }
+        String text = new String(buf, from, to - from, StandardCharsets.US_ASCII);
+        try {
+            return new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US).parse(text);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private int parseMonth(int at) {
+        for (int m = 0; m < MONTHS.length; m++) {
+            String name = MONTHS[m];
+            if (buf[at] == name.charAt(0) && buf[at + 1] == name.charAt(1) && buf[at + 2] == name.charAt(2)) {
+                return m + 1;
+            }
+        }
+        return 0;
+    }
+
+    private ZoneId resolveZone(int from, int to) {
+        int len = to - from;
+        if (zone != null && zoneName.length == len) {
+            boolean same = true;
+            for (int i = 0; i < len && same; i++) {
+                same = zoneName[i] == buf[from + i];
+            }
+            if (same) return zone;
+        }
+        String name = new String(buf, from, len, StandardCharsets.US_ASCII);
+        TimeZone def = TimeZone.getDefault();
+        ZoneId resolved = null;
+        if (name.equals(def.getDisplayName(false, TimeZone.SHORT, Locale.US))
+                || name.equals(def.getDisplayName(true, TimeZone.SHORT, Locale.US))) {
+            resolved = def.toZoneId();
+        } else if (ZoneId.SHORT_IDS.containsKey(name) || name.equals("UTC") || name.equals("GMT")) {
+            resolved = ZoneId.of(name, ZoneId.SHORT_IDS);
+        }
+        if (resolved == null) return null;
+        zoneName = name.getBytes(StandardCharsets.US_ASCII);
+        zone = resolved;
+        return zone;
+    }
+}
@@ -0,0 +1,23 @@
+package model;
+
+/**
+ * Thrown when a reservation asks for more units than a product has left.
+ */
+public class OutOfStockException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final Product product;
+    private final int requested;
+    private final int available;
+
+    public OutOfStockException(Product product, int requested, int available) {
+        super("Only " + available + " of " + product.getName() + " left, " + requested + " requested");
+        this.product = product;
+        this.requested = requested;
+        this.available = available;
+    }
+
+    public Product getProduct() { return product; }
+    public int getRequested() { return requested; }
+    public int getAvailable() { return available; }
+}
@@ -0,0 +1,187 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads a text order log in parallel. The file is cut into chunks at "---"
+ * record boundaries, each chunk is parsed by its own {@link OrderTextParser}
+ * on a fork-join pool, and the per-chunk lists are joined back together in
+ * file order.
+ */
+class ParallelOrderLoader {
+    // Chunks smaller than this aren't worth a task of their own
+    private static final long MIN_CHUNK = 1024 * 1024;
+    // More chunks than threads so a slow chunk doesn't hold everyone up
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final boolean headersOnly;
+    private long bytesRead;
+
+    ParallelOrderLoader(int parallelism, boolean headersOnly) {
+        this.parallelism = Math.max(1, parallelism);
+        this.headersOnly = headersOnly;
+    }
+
+    long getBytesRead() { return bytesRead; }
+
+    /**
+     * Parses every order in the file and returns them in file order.
+     */
+    List<Order> load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(ch);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<Order> orders = pool.invoke(new ChunkTask(ch, headersOnly ? file : null, bounds, 0, bounds.length - 1));
+                bytesRead = ch.size();
+                return orders;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns chunk start offsets followed by the file size, so chunk i is
+     * [bounds[i], bounds[i + 1]).
+     */
+    private long[] chunkBounds(FileChannel ch) throws IOException {
+        long size = ch.size();
+        int chunks = (int) Math.max(1, Math.min((long) parallelism * CHUNKS_PER_THREAD, size / MIN_CHUNK));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for (int i = 1; i < chunks; i++) {
+            long from = Math.max(size / chunks * i, bounds.get(bounds.size() - 1));
+            long boundary = nextRecordBoundary(ch, from, size);
+            if (boundary >= size) break;
+            if (boundary > bounds.get(bounds.size() - 1)) bounds.add(boundary);
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * Finds the first offset at or after {@code from} that directly follows a
+     * "---" line, i.e. where a new record can begin.
+     */
+    private static long nextRecordBoundary(FileChannel ch, long from, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        // Back up one byte so a "---" line starting exactly at 'from' is seen as a line start
+        long pos = Math.max(0, from - 1);
+        int dashes = pos == 0 ? 0 : -1;
+        while (pos < size) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == '\n') {
+                    if (dashes == 3 && pos + i + 1 > from) return pos + i + 1;
+                    dashes = 0;
+                } else if (b == '-' && dashes >= 0 && dashes < 3) {
+                    dashes++;
+                } else if (b == '\r' && dashes == 3) {
+                    // tolerate CRLF endings
+                } else {
+                    dashes = -1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static class ChunkTask extends RecursiveTask<List<Order>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel ch;
+        private final Path source;
+        private final long[] bounds;
+        private final int first;
+        private final int last; // exclusive index into bounds
+
+        ChunkTask(FileChannel ch, Path source, long[] bounds, int first, int last) {
+            this.ch = ch;
+            this.source = source;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected List<Order> compute() {
+            if (last - first == 1) {
+                return parse(bounds[first], bounds[last]);
+            }
+            int mid = (first + last) >>> 1;
+            ChunkTask left = new ChunkTask(ch, source, bounds, first, mid);
+            left.fork();
+            List<Order> right = new ChunkTask(ch, source, bounds, mid, last).compute();
+            List<Order> result = left.join();
+            if (result instanceof ArrayList) {
+                ((ArrayList<Order>) result).ensureCapacity(result.size() + right.size());
+            }
+            result.addAll(right);
+            return result;
+        }
+
+        private List<Order> parse(long start, long end) {
+            List<Order> orders = new ArrayList<>();
+            try {
+                OrderTextParser parser = new OrderTextParser(new RangeInputStream(ch, start, end), start, source);
+                Order order;
+                while ((order = parser.next()) != null) {
+                    orders.add(order);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return orders;
+        }
+    }
+
+    /**
+     * Reads a byte range of a channel with positional reads, so any number of
+     * streams can share one channel.
+     */
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel ch;
+        private long pos;
+        private final long end;
+
+        RangeInputStream(FileChannel ch, long start, long end) {
+            this.ch = ch;
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) return -1;
+            int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (n > 0) pos += n;
+            return n;
+        }
+    }
+}
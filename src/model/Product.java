@@ -1,32 +1,58 @@
 package model;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class Product {
+    private static final VarHandle STOCK;
+    static {
+        try {
+            STOCK = MethodHandles.lookup().findVarHandle(Product.class, "stock", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String id;
     private String name;
-    private double price;
-    private int stock;
+    private long priceCents;
+    private volatile int stock;
+
+    // For views onto other storage, which override the accessors
+    protected Product() {
+    }
 
-    public Product(String id, String name, double price, int stock) {
+    public Product(String id, String name, long priceCents, int stock) {
         this.id = id;
         this.name = name;
-        this.price = price;
+        this.priceCents = priceCents;
         this.stock = stock;
     }
 
     public String getId() { return id; }
     public String getName() { return name; }
-    public double getPrice() { return price; }
+    public long getPriceCents() { return priceCents; }
     public int getStock() { return stock; }
     public void setStock(int stock) { this.stock = stock; }
 
+    /** Atomically adds {@code delta} to the stock and returns the new level. */
+    public int addStock(int delta) {
+        return (int) STOCK.getAndAdd(this, delta) + delta;
+    }
+
+    /** Sets the stock only if it is still {@code expected}. */
+    public boolean compareAndSetStock(int expected, int stock) {
+        return STOCK.compareAndSet(this, expected, stock);
+    }
+
     @Override
     public String toString() {
-        return id + "," + name + "," + price + "," + stock;
+        return getId() + "," + getName() + "," + Money.format(getPriceCents()) + "," + getStock();
     }
 
     public static Product fromString(String line) {
         String[] parts = line.split(",");
         if (parts.length != 4) return null;
-        return new Product(parts[0], parts[1], Double.parseDouble(parts[2]), Integer.parseInt(parts[3]));
+        return new Product(parts[0], parts[1], Money.parse(parts[2]), Integer.parseInt(parts[3]));
     }
 }
@@ -0,0 +1,437 @@
+package model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntPredicate;
+import logging.Log;
+
+/**
+ * The product catalogue: every product in file order plus an ID index.
+ *
+ * Loading happens on a background thread so the UI can show while a large
+ * products file is read; {@link #load()} hands back a future for when it is
+ * done. One catalogue is shared by everything that needs products
+ * ({@link #getDefault()}), so the file is read once per process.
+ *
+ * The catalogue is a snapshot section: current stock survives restarts as
+ * long as the products file itself is unchanged. Once it follows an
+ * {@link OrderManager}, orders logged after the last snapshot take their
+ * units off the restored stock again, so a crash doesn't bring back stock
+ * that was sold since.
+ *
+ * With {@code -Dproducts.columnar=true} products are kept in a
+ * {@link ColumnarProductStore} instead of one object each, which takes a
+ * fraction of the memory for catalogues with millions of products. Lookups
+ * then return fresh views, so compare products with equals() rather than ==.
+ *
+ * Once loaded, the catalogue is sorted by price and stock for
+ * {@link #query(long, long, boolean, ProductSortIndex.Sort, int, int)}, and
+ * indexed for {@link #search(String, int)} on the same background thread.
+ */
+public class ProductCatalog implements Snapshottable {
+    private static final Log LOG = Log.get(ProductCatalog.class);
+
+    /** Hears about catalogue changes, on whichever thread made them. */
+    public interface Listener {
+        /** The products were (re)loaded; any row may have changed. */
+        void catalogLoaded();
+
+        /** The product at this row changed, e.g. its stock. */
+        void productChanged(int row);
+    }
+
+    private static final String PRODUCTS_FILE = "data/products.txt";
+    private static final String SNAPSHOT_SECTION = "products";
+    private static final String COLUMNAR_PROPERTY = "products.columnar";
+    // Most search hits sorted in memory; broader searches walk the sort index
+    private static final int SORTED_SEARCH_HITS = 5_000;
+
+    private static ProductCatalog defaultInstance;
+
+    private final String productsFile;
+    private final SnapshotManager snapshots; // null when not snapshotting
+    // Replaced as a whole on load, so readers need no lock (stock changes
+    // look rows up from many threads)
+    private volatile Contents contents = new Contents(new ArrayList<>(), new HashMap<>(), null);
+    private volatile ProductSearchIndex searchIndex; // null until built
+    private volatile ProductSortIndex sortIndex;
+    private CompletableFuture<ProductCatalog> loading;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile OrderManager orders; // null until followOrders()
+    // Order log mark from the restored snapshot, until its orders are replayed
+    private ByteBuffer orderMark;
+
+    public static synchronized ProductCatalog getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new ProductCatalog(PRODUCTS_FILE, SnapshotManager.getDefault());
+        }
+        return defaultInstance;
+    }
+
+    public ProductCatalog(String productsFile) {
+        this(productsFile, null);
+    }
+
+    public ProductCatalog(String productsFile, SnapshotManager snapshots) {
+        this.productsFile = productsFile;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Starts loading the catalogue in the background, unless that has
+     * already happened. The future fails if the products file can't be read.
+     */
+    public synchronized CompletableFuture<ProductCatalog> load() {
+        if (loading == null) {
+            loading = new CompletableFuture<>();
+            Thread loader = new Thread(this::loadProducts, "product-catalog-loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return loading;
+    }
+
+    private void loadProducts() {
+        Loader loader = new Loader(Boolean.getBoolean(COLUMNAR_PROPERTY));
+        boolean restored;
+        try {
+            restored = restoreSnapshot(loader);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable product snapshot: {}", e.getMessage());
+            restored = false;
+        }
+        try {
+            if (!restored) {
+                loader = new Loader(loader.columns != null);
+                try (BufferedReader br = new BufferedReader(new FileReader(productsFile))) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        loader.add(line);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to load products from {}: {}", productsFile, e.getMessage());
+            loading.completeExceptionally(e);
+            return;
+        }
+        loader.publish();
+        ProductSortIndex sorted = new ProductSortIndex(this::get, size());
+        sortIndex = sorted; // stock changes are tracked from here, before reading it
+        sorted.build();
+        synchronized (this) {
+            orderMark = loader.orderMark;
+        }
+        replayLoggedOrders();
+        if (snapshots != null) {
+            snapshots.register(SNAPSHOT_SECTION, this);
+        }
+        for (Listener l : listeners) {
+            l.catalogLoaded();
+        }
+        loading.complete(this);
+        searchIndex = ProductSearchIndex.build(this);
+    }
+
+    /**
+     * Restores products, with their stock at the time, from the last
+     * snapshot. The snapshot only applies while the products file is
+     * unchanged.
+     */
+    private boolean restoreSnapshot(Loader into) throws IOException {
+        if (snapshots == null) return false;
+        ByteBuffer in = snapshots.restore(SNAPSHOT_SECTION);
+        if (in == null) return false;
+        Path file = Paths.get(productsFile);
+        if (!Files.exists(file) || SnapshotManager.readLogPosition(in, file) != Files.size(file)) return false;
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String id = SnapshotManager.readString(in);
+            String name = SnapshotManager.readString(in);
+            long priceCents = in.getLong();
+            into.add(id, name, priceCents, in.getInt());
+        }
+        if (in.hasRemaining() && in.get() != 0) {
+            into.orderMark = in.slice();
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the stock in snapshots in step with this order log: each
+     * snapshot records how far the log had got, and after a restart the
+     * orders logged past that point are taken off the restored stock.
+     */
+    public void followOrders(OrderManager orders) {
+        this.orders = orders;
+        replayLoggedOrders();
+    }
+
+    // Runs once both the snapshot is restored and the order log is known
+    private synchronized void replayLoggedOrders() {
+        OrderManager o = orders;
+        if (orderMark == null || o == null) return;
+        ByteBuffer mark = orderMark;
+        orderMark = null;
+        List<Order> logged;
+        try {
+            logged = o.ordersLoggedSince(mark);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Stock may include units sold since the last snapshot: {}", e.getMessage());
+            return;
+        }
+        if (logged == null) {
+            LOG.warn("Order log changed since the last snapshot; stock may include units sold since");
+            return;
+        }
+        for (Order order : logged) {
+            for (CartItem item = order.getCart().getHead(); item != null; item = item.getNext()) {
+                Product p = get(item.getProductId());
+                if (p == null) continue;
+                int stock;
+                do {
+                    stock = p.getStock();
+                } while (!p.compareAndSetStock(stock, Math.max(0, stock - item.getQuantity())));
+                productChanged(p);
+            }
+        }
+        if (!logged.isEmpty()) {
+            LOG.info("Took stock for {} orders logged since the last snapshot", logged.size());
+        }
+    }
+
+    /** Collects products into whichever representation is in use. */
+    private class Loader {
+        final List<Product> products = new ArrayList<>();
+        final ColumnarProductStore columns;
+        ByteBuffer orderMark; // from a snapshot that recorded one
+
+        Loader(boolean columnar) {
+            columns = columnar ? new ColumnarProductStore(1024) : null;
+        }
+
+        // One line of the products file: id,name,price,stock
+        void add(String line) {
+            if (columns == null) {
+                Product p = Product.fromString(line);
+                if (p != null) products.add(p);
+                return;
+            }
+            String[] parts = line.split(",");
+            if (parts.length != 4) return;
+            columns.add(parts[0], parts[1], Money.parse(parts[2]), Integer.parseInt(parts[3]));
+        }
+
+        void add(String id, String name, long priceCents, int stock) {
+            if (columns == null) {
+                products.add(new Product(id, name, priceCents, stock));
+            } else {
+                columns.add(id, name, priceCents, stock);
+            }
+        }
+
+        void publish() {
+            Map<String, Integer> index = null;
+            if (columns != null) {
+                columns.trimToSize();
+            } else {
+                index = new HashMap<>(products.size() * 4 / 3 + 1);
+                for (int row = 0; row < products.size(); row++) {
+                    index.putIfAbsent(products.get(row).getId(), row);
+                }
+            }
+            contents = new Contents(columns != null ? columns.asList() : products, index, columns);
+        }
+    }
+
+    private static final class Contents {
+        final List<Product> products;
+        final Map<String, Integer> rowById;
+        final ColumnarProductStore columns; // replaces rowById in columnar mode
+
+        Contents(List<Product> products, Map<String, Integer> rowById, ColumnarProductStore columns) {
+            this.products = Collections.unmodifiableList(products);
+            this.rowById = rowById;
+            this.columns = columns;
+        }
+
+        int indexOf(String id) {
+            if (columns != null) {
+                return columns.indexOf(id);
+            }
+            Integer row = rowById.get(id);
+            return row == null ? -1 : row;
+        }
+    }
+
+    @Override
+    public void writeSnapshot(DataOutputStream out) throws IOException {
+        // Mark the order log before reading stock, so no order after the mark is
+        // missing from the replay. An order in flight right now may be counted
+        // twice after a crash, which errs towards selling too little.
+        OrderManager o = orders;
+        ByteArrayOutputStream mark = null;
+        if (o != null) {
+            mark = new ByteArrayOutputStream();
+            o.writeLogMark(new DataOutputStream(mark));
+        }
+        List<Product> current = getProducts();
+        Path file = Paths.get(productsFile);
+        SnapshotManager.writeLogPosition(out, file, Files.size(file));
+        out.writeInt(current.size());
+        for (Product p : current) {
+            SnapshotManager.writeString(out, p.getId());
+            SnapshotManager.writeString(out, p.getName());
+            out.writeLong(p.getPriceCents());
+            out.writeInt(p.getStock());
+        }
+        out.writeBoolean(mark != null);
+        if (mark != null) {
+            mark.writeTo(out);
+        }
+    }
+
+    /** The product with this ID, or null. */
+    public Product get(String id) {
+        Contents c = contents;
+        int row = c.indexOf(id);
+        return row < 0 ? null : c.products.get(row);
+    }
+
+    /** Row of the product with this ID, or -1. */
+    public int indexOf(String id) {
+        return contents.indexOf(id);
+    }
+
+    public Product get(int index) {
+        return contents.products.get(index);
+    }
+
+    public int size() {
+        return contents.products.size();
+    }
+
+    /** All products in file order. */
+    public List<Product> getProducts() {
+        return contents.products;
+    }
+
+    /**
+     * Products whose name or ID matches the query, see
+     * {@link ProductSearchIndex}. Until the index is built this falls back
+     * to a scan of the catalogue.
+     *
+     * @return matching rows, at most {@code limit}
+     */
+    public int[] search(String query, int limit) {
+        return search(query, limit, null);
+    }
+
+    private int[] search(String query, int limit, IntPredicate filter) {
+        ProductSearchIndex index = searchIndex;
+        if (index != null) {
+            return index.search(query, limit, filter);
+        }
+        String[] terms = ProductSearchIndex.terms(query);
+        if (terms.length == 0) return new int[0];
+        List<Product> current = getProducts();
+        int[] found = new int[Math.max(0, limit)];
+        int count = 0;
+        for (int row = 0; row < current.size() && count < found.length; row++) {
+            if ((filter == null || filter.test(row)) && ProductSearchIndex.matches(current.get(row), terms)) {
+                found[count++] = row;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Search hits priced at most {@code maxPriceCents}, optionally in stock
+     * only, in the given order. The filters are applied before the limit,
+     * so fewer than {@code limit} rows means there are no more matches.
+     *
+     * A query with fewer than 5,000 hits is sorted in
+     * memory; a broader one walks the sort index in order and keeps the
+     * rows that match, which soon fills the page.
+     */
+    public int[] search(String query, long maxPriceCents, boolean inStockOnly,
+                        ProductSortIndex.Sort sort, int limit) {
+        IntPredicate filter = row -> {
+            Product p = get(row);
+            return p.getPriceCents() <= maxPriceCents && (!inStockOnly || p.getStock() > 0);
+        };
+        if (sort == ProductSortIndex.Sort.CATALOGUE) {
+            return search(query, limit, filter);
+        }
+        int[] hits = search(query, SORTED_SEARCH_HITS, filter);
+        if (hits.length < SORTED_SEARCH_HITS || sortIndex == null) {
+            return sortRows(hits, sort, limit);
+        }
+        String[] terms = ProductSearchIndex.terms(query);
+        int[] found = new int[limit];
+        int count = 0;
+        for (int offset = 0; count < limit; offset += SORTED_SEARCH_HITS) {
+            int[] page = query(Long.MIN_VALUE, maxPriceCents, inStockOnly, sort, offset, SORTED_SEARCH_HITS);
+            for (int i = 0; i < page.length && count < limit; i++) {
+                if (ProductSearchIndex.matches(get(page[i]), terms)) found[count++] = page[i];
+            }
+            if (page.length < SORTED_SEARCH_HITS) break;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private int[] sortRows(int[] rows, ProductSortIndex.Sort sort, int limit) {
+        boolean byPrice = sort == ProductSortIndex.Sort.PRICE_ASCENDING || sort == ProductSortIndex.Sort.PRICE_DESCENDING;
+        boolean descending = sort == ProductSortIndex.Sort.PRICE_DESCENDING || sort == ProductSortIndex.Sort.STOCK_DESCENDING;
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            Product p = get(rows[i]);
+            keys[i] = SortedRowIndex.key(byPrice ? p.getPriceCents() : p.getStock(), rows[i]);
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[Math.min(limit, keys.length)];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = SortedRowIndex.row(keys[descending ? keys.length - 1 - i : i]);
+        }
+        return sorted;
+    }
+
+    /**
+     * A page of products priced between the bounds (inclusive, in cents),
+     * optionally in stock only, in the given order. Empty until loaded.
+     *
+     * @return catalogue rows, at most {@code limit}
+     */
+    public int[] query(long minPriceCents, long maxPriceCents, boolean inStockOnly,
+                       ProductSortIndex.Sort sort, int offset, int limit) {
+        ProductSortIndex index = sortIndex;
+        if (index == null) return new int[0];
+        return index.query(minPriceCents, maxPriceCents, inStockOnly, sort, offset, limit);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Tells listeners that this product's stock or price has changed. */
+    public void productChanged(Product product) {
+        ProductSortIndex sorted = sortIndex;
+        if (sorted == null && listeners.isEmpty()) return;
+        int row = indexOf(product.getId());
+        if (row < 0) return;
+        if (sorted != null) sorted.stockChanged(row);
+        for (Listener l : listeners) {
+            l.productChanged(row);
+        }
+    }
+}
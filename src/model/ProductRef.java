@@ -0,0 +1,38 @@
+package model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A product's identity, its ID and name, shared by every order line that
+ * refers to it. Order history keeps one of these per distinct product
+ * instead of a copy of the ID and name on every line.
+ */
+public final class ProductRef {
+    private static final ConcurrentHashMap<String, ProductRef> INTERNED = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final String name;
+
+    private ProductRef(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /** The shared reference for this ID and name. */
+    public static ProductRef of(String id, String name) {
+        ProductRef ref = INTERNED.get(id);
+        if (ref != null && ref.name.equals(name)) return ref;
+        // New product, or renamed since: the latest name becomes the shared one
+        ProductRef created = new ProductRef(id, name);
+        INTERNED.put(id, created);
+        return created;
+    }
+
+    public String getId() { return id; }
+    public String getName() { return name; }
+
+    @Override
+    public String toString() {
+        return id + "," + name;
+    }
+}
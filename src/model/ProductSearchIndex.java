@@ -0,0 +1,244 @@
+package model;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Search index over product names and IDs, for type-ahead search.
+ *
+ * Two kinds of postings (sorted catalogue rows) are kept:
+ * <ul>
+ *   <li>by the first one and two letters of each word of the name and of
+ *       the ID, for one- and two-letter query words, which match the start
+ *       of a word - the top two levels of a prefix trie;</li>
+ *   <li>by trigram of the name and ID, for longer query words, which match
+ *       anywhere in the name or ID.</li>
+ * </ul>
+ * A query of several words matches products that match every word. The
+ * shortest postings list drives the search and the others are intersected
+ * with it; each remaining row is checked against the product's current
+ * name and ID before it is returned, so results are exact, come in
+ * catalogue order and stop at the requested limit.
+ *
+ * Product names and IDs never change once loaded (only stock does), so
+ * the index is built once per catalogue load and not updated.
+ */
+public class ProductSearchIndex {
+    private static final int GRAM = 3;
+
+    private final IntFunction<Product> rows;
+    private final Map<String, RowList> prefixes = new HashMap<>();
+    private final Map<Long, RowList> trigrams = new HashMap<>();
+
+    /**
+     * @param rows looks up the product at a catalogue row, for checking
+     *             candidates
+     */
+    public ProductSearchIndex(IntFunction<Product> rows) {
+        this.rows = rows;
+    }
+
+    /** Indexes every row of the catalogue. */
+    public static ProductSearchIndex build(ProductCatalog catalog) {
+        ProductSearchIndex index = new ProductSearchIndex(catalog::get);
+        List<Product> products = catalog.getProducts();
+        for (int row = 0; row < products.size(); row++) {
+            Product p = products.get(row);
+            index.add(row, p.getId(), p.getName());
+        }
+        index.trimToSize();
+        return index;
+    }
+
+    private void add(int row, String id, String name) {
+        String lowerName = lower(name);
+        String lowerId = lower(id);
+        for (String word : words(lowerName)) {
+            addPrefixes(row, word);
+        }
+        addPrefixes(row, lowerId);
+        addTrigrams(row, lowerName);
+        addTrigrams(row, lowerId);
+    }
+
+    private void addPrefixes(int row, String word) {
+        for (int length = 1; length < GRAM && length <= word.length(); length++) {
+            prefixes.computeIfAbsent(word.substring(0, length), p -> new RowList()).add(row);
+        }
+    }
+
+    private void addTrigrams(int row, String text) {
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            trigrams.computeIfAbsent(trigram(text, i), g -> new RowList()).add(row);
+        }
+    }
+
+    private void trimToSize() {
+        for (RowList list : prefixes.values()) list.trimToSize();
+        for (RowList list : trigrams.values()) list.trimToSize();
+    }
+
+    /**
+     * Finds products whose name or ID matches every word of the query.
+     *
+     * @return matching catalogue rows in catalogue order, at most
+     *         {@code limit}
+     */
+    public int[] search(String query, int limit) {
+        return search(query, limit, null);
+    }
+
+    /**
+     * Like {@link #search(String, int)}, keeping only rows the filter
+     * accepts; rejected rows don't count towards the limit.
+     *
+     * @param filter null to keep every match
+     */
+    public int[] search(String query, int limit, IntPredicate filter) {
+        String[] terms = terms(query);
+        if (terms.length == 0 || limit <= 0) return new int[0];
+
+        // Postings for every term, shortest first; the shortest drives the
+        // search and the rest filter its rows
+        List<RowList> postings = new ArrayList<>();
+        for (String term : terms) {
+            if (term.length() < GRAM) {
+                RowList list = prefixes.get(term);
+                if (list == null) return new int[0];
+                if (!postings.contains(list)) postings.add(list);
+                continue;
+            }
+            for (int i = 0; i + GRAM <= term.length(); i++) {
+                RowList list = trigrams.get(trigram(term, i));
+                if (list == null) return new int[0];
+                if (!postings.contains(list)) postings.add(list);
+            }
+        }
+        postings.sort(Comparator.comparingInt(list -> list.size));
+        RowList driver = postings.get(0);
+        int[] cursors = new int[postings.size()];
+
+        int[] found = new int[Math.min(limit, 64)];
+        int count = 0;
+        for (int i = 0; i < driver.size && count < limit; i++) {
+            int row = driver.rows[i];
+            if (inAll(row, postings, cursors) && (filter == null || filter.test(row))
+                    && matches(rows.apply(row), terms)) {
+                if (count == found.length) found = Arrays.copyOf(found, Math.min(limit, count * 2));
+                found[count++] = row;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // Whether every list holds the row; rows are asked for in increasing
+    // order, so each list is searched forward from where it last stopped
+    private static boolean inAll(int row, List<RowList> postings, int[] cursors) {
+        for (int k = 1; k < postings.size(); k++) {
+            RowList list = postings.get(k);
+            int pos = list.seek(row, cursors[k]);
+            cursors[k] = pos;
+            if (pos == list.size || list.rows[pos] != row) return false;
+        }
+        return true;
+    }
+
+    /** The lower-cased words of a query; empty if it has none. */
+    static String[] terms(String query) {
+        String trimmed = lower(query).trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    /**
+     * Whether the product matches every term: one- and two-letter terms
+     * match the start of a name word or of the ID, longer ones anywhere in
+     * the name or ID. Also used to scan the catalogue before the index is
+     * built, so results are the same either way.
+     */
+    static boolean matches(Product p, String[] terms) {
+        String name = lower(p.getName());
+        String id = lower(p.getId());
+        for (String term : terms) {
+            if (term.length() >= GRAM) {
+                if (!name.contains(term) && !id.contains(term)) return false;
+            } else if (!id.startsWith(term) && !hasWordStartingWith(name, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasWordStartingWith(String text, String prefix) {
+        for (String word : words(text)) {
+            if (word.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static List<String> words(String text) {
+        List<String> result = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private static String lower(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /** Sorted, duplicate-free catalogue rows. */
+    private static final class RowList {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size > 0 && rows[size - 1] >= row) {
+                int pos = Arrays.binarySearch(rows, 0, size, row);
+                if (pos >= 0) return;
+                insert(-pos - 1, row);
+                return;
+            }
+            insert(size, row);
+        }
+
+        private void insert(int pos, int row) {
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            System.arraycopy(rows, pos, rows, pos + 1, size - pos);
+            rows[pos] = row;
+            size++;
+        }
+
+        /** First position at or after {@code from} holding a row >= {@code row}. */
+        int seek(int row, int from) {
+            // Gallop ahead, then binary search the last step
+            int step = 1;
+            int lo = from;
+            int hi = from;
+            while (hi < size && rows[hi] < row) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, size);
+            int pos = Arrays.binarySearch(rows, lo, hi, row);
+            return pos >= 0 ? pos : -pos - 1;
+        }
+
+        void trimToSize() {
+            if (rows.length != size) rows = Arrays.copyOf(rows, size);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Catalogue rows sorted by price and by stock, for filtered and sorted
+ * views of the catalogue.
+ *
+ * A page of rows in price or stock order, or within a price or stock
+ * range, costs a binary search plus the rows returned. When a query also
+ * filters on the other field (in-stock rows by price, say), rows failing
+ * that filter are skipped as the range is walked; a narrow price range is
+ * instead read off the price index and sorted on the spot.
+ *
+ * Stock changes arrive from checkout threads, which must not wait on the
+ * index: {@link #stockChanged(int)} only marks the row, and the next query
+ * moves marked rows to their new place before it reads.
+ */
+public class ProductSortIndex {
+    public enum Sort {
+        CATALOGUE("Catalogue order"),
+        PRICE_ASCENDING("Price: low to high"),
+        PRICE_DESCENDING("Price: high to low"),
+        STOCK_ASCENDING("Stock: low to high"),
+        STOCK_DESCENDING("Stock: high to low");
+
+        private final String label;
+
+        Sort(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() { return label; }
+    }
+
+    // Largest price range sorted on the spot rather than walked in order
+    private static final int SMALL_RANGE = 1 << 16;
+
+    private final IntFunction<Product> rows;
+    private final int size;
+    private SortedRowIndex byPrice;
+    private SortedRowIndex byStock;
+    // Stock each row is filed under in byStock
+    private int[] indexedStock;
+
+    // Rows whose stock changed since the last query; a row is queued once
+    // until it is taken off again
+    private final AtomicLongArray marked;
+    private final ConcurrentLinkedQueue<Integer> changed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Tracks stock changes from now on; call {@link #build()} to fill it.
+     *
+     * @param rows looks up the product at a catalogue row
+     */
+    public ProductSortIndex(IntFunction<Product> rows, int size) {
+        this.rows = rows;
+        this.size = size;
+        this.marked = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /** Reads every row's price and stock and sorts them. */
+    public synchronized void build() {
+        long[] priceKeys = new long[size];
+        long[] stockKeys = new long[size];
+        indexedStock = new int[size];
+        for (int row = 0; row < size; row++) {
+            Product p = rows.apply(row);
+            int stock = p.getStock();
+            indexedStock[row] = stock;
+            priceKeys[row] = SortedRowIndex.key(p.getPriceCents(), row);
+            stockKeys[row] = SortedRowIndex.key(stock, row);
+        }
+        Arrays.sort(priceKeys);
+        Arrays.sort(stockKeys);
+        byPrice = new SortedRowIndex(priceKeys);
+        byStock = new SortedRowIndex(stockKeys);
+    }
+
+    /** Notes that the row's stock changed. Never blocks. */
+    public void stockChanged(int row) {
+        if (row < 0 || row >= size) return;
+        long bit = 1L << row;
+        long old = marked.getAndAccumulate(row >>> 6, bit, (a, b) -> a | b);
+        if ((old & bit) == 0) changed.add(row);
+    }
+
+    // Refiles every marked row under its current stock
+    private void applyChanges() {
+        Integer next;
+        while ((next = changed.poll()) != null) {
+            int row = next;
+            long bit = 1L << row;
+            // Unmark before reading, so a change after the read queues again
+            marked.getAndAccumulate(row >>> 6, ~bit, (a, b) -> a & b);
+            int stock = rows.apply(row).getStock();
+            if (stock != indexedStock[row]) {
+                byStock.remove(SortedRowIndex.key(indexedStock[row], row));
+                byStock.add(SortedRowIndex.key(stock, row));
+                indexedStock[row] = stock;
+            }
+        }
+    }
+
+    /**
+     * A page of rows priced between the bounds (inclusive), optionally in
+     * stock only, in the given order.
+     *
+     * @param offset matching rows to skip before the page starts
+     * @return at most {@code limit} catalogue rows
+     */
+    public synchronized int[] query(long minPriceCents, long maxPriceCents, boolean inStockOnly,
+                                    Sort sort, int offset, int limit) {
+        if (byPrice == null || limit <= 0 || minPriceCents > maxPriceCents) return new int[0];
+        applyChanges();
+        Page page = new Page(offset, limit);
+        int priceFrom = rankFrom(byPrice, minPriceCents);
+        int priceTo = rankTo(byPrice, maxPriceCents);
+        IntPredicate inStock = row -> indexedStock[row] > 0;
+
+        if (sort == Sort.PRICE_ASCENDING || sort == Sort.PRICE_DESCENDING) {
+            walk(byPrice, priceFrom, priceTo, sort == Sort.PRICE_DESCENDING, inStockOnly ? inStock : null, page);
+        } else if (priceTo - priceFrom <= SMALL_RANGE && (priceTo - priceFrom) * 4L < size) {
+            // A narrow price range: cheaper to sort it than to walk the
+            // other order looking for its rows
+            sortPriceRange(priceFrom, priceTo, inStockOnly, sort, page);
+        } else if (sort == Sort.CATALOGUE) {
+            // File order has no index to walk; scan until the page fills
+            for (int row = 0; row < size; row++) {
+                long price = rows.apply(row).getPriceCents();
+                if (price >= minPriceCents && price <= maxPriceCents
+                        && (!inStockOnly || indexedStock[row] > 0)
+                        && !page.offer(row)) {
+                    break;
+                }
+            }
+        } else {
+            boolean allPrices = priceTo - priceFrom == size;
+            IntPredicate priced = row -> {
+                long price = rows.apply(row).getPriceCents();
+                return price >= minPriceCents && price <= maxPriceCents;
+            };
+            walk(byStock, rankFrom(byStock, inStockOnly ? 1 : Integer.MIN_VALUE), size,
+                    sort == Sort.STOCK_DESCENDING, allPrices ? null : priced, page);
+        }
+        return page.rows();
+    }
+
+    private void sortPriceRange(int from, int to, boolean inStockOnly, Sort sort, Page page) {
+        long[] keys = new long[to - from];
+        int[] count = new int[1];
+        byPrice.visit(from, to, false, row -> {
+            if (!inStockOnly || indexedStock[row] > 0) {
+                keys[count[0]++] = sort == Sort.CATALOGUE ? row : SortedRowIndex.key(indexedStock[row], row);
+            }
+            return true;
+        });
+        Arrays.sort(keys, 0, count[0]);
+        if (sort == Sort.STOCK_DESCENDING) {
+            for (int i = count[0] - 1; i >= 0 && page.offer(SortedRowIndex.row(keys[i])); i--) { }
+        } else {
+            for (int i = 0; i < count[0] && page.offer(SortedRowIndex.row(keys[i])); i++) { }
+        }
+    }
+
+    // Rank of the first key with at least this value
+    private static int rankFrom(SortedRowIndex index, long min) {
+        return min <= Integer.MIN_VALUE ? 0 : index.rank(SortedRowIndex.key(min, 0));
+    }
+
+    // Rank just past the last key with at most this value
+    private static int rankTo(SortedRowIndex index, long max) {
+        return max >= Integer.MAX_VALUE ? index.size() : index.rank(SortedRowIndex.key(max + 1, 0));
+    }
+
+    private static void walk(SortedRowIndex index, int from, int to, boolean descending,
+                             IntPredicate filter, Page page) {
+        if (filter == null) {
+            // Every row in range matches, so the offset is a plain rank
+            if (descending) {
+                to = Math.max(from, to - page.skip);
+            } else {
+                from = Math.min(to, from + page.skip);
+            }
+            page.skip = 0;
+            index.visit(from, to, descending, page::offer);
+        } else {
+            index.visit(from, to, descending, row -> !filter.test(row) || page.offer(row));
+        }
+    }
+
+    // Collects rows after skipping the offset; offer() is false once full
+    private static final class Page {
+        int skip;
+        final int[] found;
+        int count;
+
+        Page(int offset, int limit) {
+            this.skip = Math.max(0, offset);
+            this.found = new int[limit];
+        }
+
+        boolean offer(int row) {
+            if (skip > 0) {
+                skip--;
+                return true;
+            }
+            found[count++] = row;
+            return count < found.length;
+        }
+
+        int[] rows() {
+            return Arrays.copyOf(found, count);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import logging.Log;
+
+/**
+ * Periodic point-in-time snapshots of the in-memory stores (users, orders,
+ * products), so startup restores the snapshot and replays only the part of
+ * each log written after it.
+ *
+ * Every store registers under a section name and restores from that section
+ * when it is created. Snapshots are written to a temporary file and moved
+ * over the old one, so a crash leaves either the old or the new snapshot.
+ * Sections of stores that aren't loaded right now are carried over as they
+ * were.
+ *
+ * File layout: magic "SNAP", int version, int section count, then per
+ * section a UTF name, an int length and the section bytes.
+ */
+public class SnapshotManager {
+    private static final Log LOG = Log.get(SnapshotManager.class);
+    private static final String SNAPSHOT_FILE = "data/snapshot.dat";
+    // -Dsnapshot.intervalSeconds=N sets how often snapshots are taken; 0 turns periodic snapshots off
+    private static final String INTERVAL_PROPERTY = "snapshot.intervalSeconds";
+    private static final byte[] MAGIC = {'S', 'N', 'A', 'P'};
+    private static final int VERSION = 1;
+    // How much of a log, ending at the snapshot position, is checksummed to spot a replaced log
+    private static final int MARK_WINDOW = 4096;
+
+    private static SnapshotManager defaultInstance;
+
+    private final Path file;
+    private final long intervalSeconds;
+    // Section name -> bytes from the last snapshot written or read
+    private Map<String, byte[]> sections;
+    private final Map<String, Snapshottable> sources = new LinkedHashMap<>();
+    // Serialises snapshot writers; never held while waiting for 'this'
+    private final Object writeLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    public static synchronized SnapshotManager getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new SnapshotManager(SNAPSHOT_FILE, Long.getLong(INTERVAL_PROPERTY, 60));
+        }
+        return defaultInstance;
+    }
+
+    public SnapshotManager(String file, long intervalSeconds) {
+        this.file = Paths.get(file);
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Returns the saved state of a section, or null if the last snapshot has
+     * none. Read it with the {@link ByteBuffer} getters and
+     * {@link #readString}; it is big-endian like {@link DataOutputStream}.
+     */
+    public synchronized ByteBuffer restore(String section) {
+        byte[] bytes = sections().get(section);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Includes the store in future snapshots, replacing any earlier store
+     * registered under the same name.
+     */
+    public synchronized void register(String section, Snapshottable source) {
+        sections();
+        sources.put(section, source);
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "snapshot-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            if (intervalSeconds > 0) {
+                scheduler.scheduleWithFixedDelay(this::snapshotNow, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stops snapshotting the store. Its last saved section is kept.
+     */
+    public synchronized void unregister(String section, Snapshottable source) {
+        sources.remove(section, source);
+    }
+
+    /**
+     * Takes a snapshot in the background, e.g. after a store has rewritten
+     * its log and the old snapshot no longer lines up with it.
+     */
+    public synchronized void requestSnapshot() {
+        if (scheduler != null) {
+            scheduler.execute(this::snapshotNow);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every registered store and waits until it is on
+     * disk.
+     */
+    public void snapshotNow() {
+        synchronized (writeLock) {
+            Map<String, Snapshottable> current;
+            Map<String, byte[]> next;
+            synchronized (this) {
+                current = new LinkedHashMap<>(sources);
+                next = new LinkedHashMap<>(sections());
+            }
+            long start = System.nanoTime();
+            for (Map.Entry<String, Snapshottable> e : current.entrySet()) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    e.getValue().writeSnapshot(out);
+                    out.flush();
+                    next.put(e.getKey(), bytes.toByteArray());
+                } catch (IOException | RuntimeException ex) {
+                    LOG.warn("Keeping previous snapshot of {}: {}", e.getKey(), ex.getMessage());
+                }
+            }
+            try {
+                write(next);
+            } catch (IOException e) {
+                LOG.error("Failed to write snapshot to {}", file, e);
+                return;
+            }
+            synchronized (this) {
+                sections = next;
+            }
+            LOG.info("Snapshot written to {} in {} ms", file, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private void write(Map<String, byte[]> content) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        Path tmp = Paths.get(file + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(content.size());
+            for (Map.Entry<String, byte[]> e : content.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Map<String, byte[]> sections() {
+        if (sections == null) {
+            sections = new LinkedHashMap<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                int version = in.readInt();
+                if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                    throw new IOException("not a version " + VERSION + " snapshot");
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    sections.put(name, bytes);
+                }
+            } catch (NoSuchFileException e) {
+                // No snapshot yet; every store loads its full log
+            } catch (IOException e) {
+                LOG.warn("Ignoring unreadable snapshot {}: {}", file, e.getMessage());
+                sections.clear();
+            }
+        }
+        return sections;
+    }
+
+    // ---- section helpers ----
+
+    /** Writes a string as its UTF-8 byte length and bytes. */
+    public static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Records how far into a log a snapshot section reaches, together with
+     * enough about the log to tell later whether it is still the same file.
+     */
+    public static void writeLogPosition(DataOutputStream out, Path log, long offset) throws IOException {
+        writeString(out, log.toString());
+        writeString(out, fileKey(log));
+        out.writeLong(offset);
+        out.writeLong(checksum(log, offset));
+    }
+
+    /**
+     * Reads a position written by {@link #writeLogPosition}.
+     *
+     * @return the offset to replay the log from, or -1 if the log has been
+     *         replaced, rewritten or truncated since and the section is stale
+     */
+    public static long readLogPosition(ByteBuffer in, Path log) throws IOException {
+        String path = readString(in);
+        String key = readString(in);
+        long offset = in.getLong();
+        long checksum = in.getLong();
+        if (!path.equals(log.toString())) return -1;
+        if (!Files.exists(log)) return offset == 0 ? 0 : -1;
+        String currentKey = fileKey(log);
+        if (!key.isEmpty() && !currentKey.isEmpty() && !key.equals(currentKey)) return -1;
+        if (Files.size(log) < offset || checksum(log, offset) != checksum) return -1;
+        return offset;
+    }
+
+    private static String fileKey(Path log) throws IOException {
+        if (!Files.exists(log)) return "";
+        Object key = Files.readAttributes(log, BasicFileAttributes.class).fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    private static long checksum(Path log, long offset) throws IOException {
+        CRC32 crc = new CRC32();
+        if (offset > 0 && Files.exists(log)) {
+            long from = Math.max(0, offset - MARK_WINDOW);
+            ByteBuffer buf = ByteBuffer.allocate((int) (offset - from));
+            try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                while (buf.hasRemaining() && ch.read(buf, from + buf.position()) > 0) {
+                    // keep reading
+                }
+            }
+            buf.flip();
+            crc.update(buf);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,17 @@
+package model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A store whose in-memory state can be saved as one section of the
+ * application snapshot. See {@link SnapshotManager}.
+ */
+public interface Snapshottable {
+    /**
+     * Writes a point-in-time copy of the store's state, usually including
+     * how far into its log that state reaches. Throwing keeps the section
+     * from the previous snapshot.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException;
+}
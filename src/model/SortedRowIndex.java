@@ -0,0 +1,183 @@
+package model;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Catalogue rows sorted by a value, such as price or stock, for range
+ * queries and sorted pages.
+ *
+ * Each entry is one long key: the value in the high 32 bits and the row in
+ * the low 32, so equal values keep catalogue order. Keys are kept in sorted
+ * blocks of a few hundred, found by binary search over each block's first
+ * key: adding or removing a key moves at most one block, and a range is
+ * found in O(log n) and then read off in order.
+ *
+ * Not thread-safe; {@link ProductSortIndex} locks around it.
+ */
+class SortedRowIndex {
+    private static final int BLOCK = 512;
+
+    private long[][] blocks;
+    private int[] counts;
+    private long[] firstKeys;
+    private int blockCount;
+    private int size;
+    // Rank of each block's first key; rebuilt on demand after changes
+    private int[] starts;
+    private boolean startsValid;
+
+    /** @param sortedKeys keys in ascending order, without duplicates */
+    SortedRowIndex(long[] sortedKeys) {
+        int n = Math.max(1, (sortedKeys.length + BLOCK - 1) / BLOCK);
+        blocks = new long[n][];
+        counts = new int[n];
+        firstKeys = new long[n];
+        for (int b = 0; b < n; b++) {
+            int from = b * BLOCK;
+            int count = Math.max(0, Math.min(BLOCK, sortedKeys.length - from));
+            blocks[b] = new long[BLOCK * 2];
+            System.arraycopy(sortedKeys, from, blocks[b], 0, count);
+            counts[b] = count;
+            firstKeys[b] = count > 0 ? sortedKeys[from] : Long.MIN_VALUE;
+        }
+        blockCount = n;
+        size = sortedKeys.length;
+    }
+
+    static long key(long value, int row) {
+        long clamped = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+        return (clamped << 32) | row;
+    }
+
+    static int row(long key) {
+        return (int) key;
+    }
+
+    int size() { return size; }
+
+    void add(long key) {
+        int b = blockOf(key);
+        long[] block = blocks[b];
+        int pos = Arrays.binarySearch(block, 0, counts[b], key);
+        if (pos >= 0) return;
+        pos = -pos - 1;
+        System.arraycopy(block, pos, block, pos + 1, counts[b] - pos);
+        block[pos] = key;
+        counts[b]++;
+        size++;
+        if (pos == 0) firstKeys[b] = key;
+        if (counts[b] == block.length) split(b);
+        startsValid = false;
+    }
+
+    boolean remove(long key) {
+        int b = blockOf(key);
+        long[] block = blocks[b];
+        int pos = Arrays.binarySearch(block, 0, counts[b], key);
+        if (pos < 0) return false;
+        System.arraycopy(block, pos + 1, block, pos, counts[b] - pos - 1);
+        counts[b]--;
+        size--;
+        if (counts[b] == 0 && blockCount > 1) {
+            removeBlock(b);
+        } else if (pos == 0 && counts[b] > 0) {
+            firstKeys[b] = block[0];
+        }
+        startsValid = false;
+        return true;
+    }
+
+    /** Number of keys below this one. */
+    int rank(long key) {
+        int b = blockOf(key);
+        int pos = Arrays.binarySearch(blocks[b], 0, counts[b], key);
+        return starts()[b] + (pos >= 0 ? pos : -pos - 1);
+    }
+
+    /**
+     * Hands rows to the visitor in key order, from rank {@code from}
+     * (inclusive) to {@code to} (exclusive), or from {@code to - 1} down
+     * to {@code from} when descending, until the visitor returns false.
+     */
+    void visit(int from, int to, boolean descending, IntPredicate visitor) {
+        if (from >= to) return;
+        int[] starts = starts();
+        if (!descending) {
+            int b = blockAt(starts, from);
+            int pos = from - starts[b];
+            for (int rank = from; rank < to; rank++) {
+                while (pos == counts[b]) { b++; pos = 0; }
+                if (!visitor.test(row(blocks[b][pos++]))) return;
+            }
+        } else {
+            int b = blockAt(starts, to - 1);
+            int pos = to - 1 - starts[b];
+            for (int rank = to - 1; rank >= from; rank--) {
+                while (pos < 0) { b--; pos = counts[b] - 1; }
+                if (!visitor.test(row(blocks[b][pos--]))) return;
+            }
+        }
+    }
+
+    // Last block whose first key is <= key, or the first block
+    private int blockOf(long key) {
+        int lo = 0, hi = blockCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstKeys[mid] <= key) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // Block holding the key of this rank
+    private static int blockAt(int[] starts, int rank) {
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= rank) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private int[] starts() {
+        if (!startsValid) {
+            if (starts == null || starts.length != blockCount) starts = new int[blockCount];
+            int rank = 0;
+            for (int b = 0; b < blockCount; b++) {
+                starts[b] = rank;
+                rank += counts[b];
+            }
+            startsValid = true;
+        }
+        return starts;
+    }
+
+    private void split(int b) {
+        if (blockCount == blocks.length) {
+            int capacity = blockCount + (blockCount >> 1) + 1;
+            blocks = Arrays.copyOf(blocks, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            firstKeys = Arrays.copyOf(firstKeys, capacity);
+        }
+        System.arraycopy(blocks, b + 1, blocks, b + 2, blockCount - b - 1);
+        System.arraycopy(counts, b + 1, counts, b + 2, blockCount - b - 1);
+        System.arraycopy(firstKeys, b + 1, firstKeys, b + 2, blockCount - b - 1);
+        long[] upper = new long[BLOCK * 2];
+        int half = counts[b] / 2;
+        System.arraycopy(blocks[b], half, upper, 0, counts[b] - half);
+        blocks[b + 1] = upper;
+        counts[b + 1] = counts[b] - half;
+        firstKeys[b + 1] = upper[0];
+        counts[b] = half;
+        blockCount++;
+    }
+
+    private void removeBlock(int b) {
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+        System.arraycopy(counts, b + 1, counts, b, blockCount - b - 1);
+        System.arraycopy(firstKeys, b + 1, firstKeys, b, blockCount - b - 1);
+        blockCount--;
+        blocks[blockCount] = null;
+    }
+}
@@ -0,0 +1,153 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import metrics.MetricsRegistry;
+
+/**
+ * Stock reservation for checkout.
+ *
+ * A product's stock counts the units still available to sell. Reserving
+ * takes units off with a compare-and-set loop on that product's own
+ * counter, so buyers of different products never wait on each other and
+ * two buyers of the same product can't both get the last unit. A
+ * reservation is then either committed once the order is fulfilled, or
+ * released to put the units back.
+ *
+ * Reserving a whole cart is all-or-nothing: if any line is short, the
+ * lines already taken are put back before the failure is reported.
+ *
+ * Every stock change is reported to a listener; the default engine tells
+ * the default {@link ProductCatalog}, which passes it on to its views.
+ */
+public class StockEngine {
+    /** Units held for one cart or product until committed or released. */
+    public static final class Reservation {
+        private static final int PENDING = 0, COMMITTED = 1, RELEASED = 2;
+
+        private final StockEngine engine;
+        private final Product[] products;
+        private final int[] quantities;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Reservation(StockEngine engine, Product[] products, int[] quantities) {
+            this.engine = engine;
+            this.products = products;
+            this.quantities = quantities;
+        }
+
+        /**
+         * Makes the reservation final. The units are already off the stock.
+         *
+         * @return false if it had been released
+         */
+        public boolean commit() {
+            return state.compareAndSet(PENDING, COMMITTED) || state.get() == COMMITTED;
+        }
+
+        /**
+         * Puts the units back, unless the reservation was committed.
+         *
+         * @return true if units were returned
+         */
+        public boolean release() {
+            if (!state.compareAndSet(PENDING, RELEASED)) return false;
+            for (int i = 0; i < products.length; i++) {
+                products[i].addStock(quantities[i]);
+                engine.onChange.accept(products[i]);
+            }
+            return true;
+        }
+
+        public boolean isPending() { return state.get() == PENDING; }
+    }
+
+    private static StockEngine defaultInstance;
+
+    private final Consumer<Product> onChange;
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    public static synchronized StockEngine getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new StockEngine(ProductCatalog.getDefault()::productChanged);
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            metrics.gauge("stock.reserved", defaultInstance::getReservedCount);
+            metrics.gauge("stock.rejected", defaultInstance::getRejectedCount);
+            metrics.gauge("stock.contentionRetries", defaultInstance::getContentionRetries);
+        }
+        return defaultInstance;
+    }
+
+    public StockEngine() {
+        this(product -> { });
+    }
+
+    /**
+     * @param onChange called with each product whose stock went up or down
+     */
+    public StockEngine(Consumer<Product> onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * Reserves every line of the cart, or nothing.
+     *
+     * @throws OutOfStockException for the first line that can't be covered
+     */
+    public Reservation reserve(Cart cart) throws OutOfStockException {
+        Product[] products = new Product[cart.getLineCount()];
+        int[] quantities = new int[products.length];
+        int taken = 0;
+        for (CartItem item = cart.getHead(); item != null; item = item.getNext()) {
+            int available = take(item.getProduct(), item.getQuantity());
+            if (available >= 0) {
+                for (int i = 0; i < taken; i++) {
+                    products[i].addStock(quantities[i]);
+                    onChange.accept(products[i]);
+                }
+                rejected.increment();
+                throw new OutOfStockException(item.getProduct(), item.getQuantity(), available);
+            }
+            products[taken] = item.getProduct();
+            quantities[taken] = item.getQuantity();
+            taken++;
+        }
+        reserved.increment();
+        return new Reservation(this, products, quantities);
+    }
+
+    public Reservation reserve(Product product, int quantity) throws OutOfStockException {
+        int available = take(product, quantity);
+        if (available >= 0) {
+            rejected.increment();
+            throw new OutOfStockException(product, quantity, available);
+        }
+        reserved.increment();
+        return new Reservation(this, new Product[] {product}, new int[] {quantity});
+    }
+
+    /**
+     * Takes {@code quantity} units off the product's stock.
+     *
+     * @return -1 on success, otherwise the units available (fewer than asked)
+     */
+    private int take(Product product, int quantity) {
+        while (true) {
+            int stock = product.getStock();
+            if (stock < quantity) return stock;
+            if (product.compareAndSetStock(stock, stock - quantity)) {
+                onChange.accept(product);
+                return -1;
+            }
+            retries.increment(); // another buyer of the same product got in first
+        }
+    }
+
+    public long getReservedCount() { return reserved.sum(); }
+    public long getRejectedCount() { return rejected.sum(); }
+    /** Compare-and-set attempts lost to a concurrent buyer of the same product. */
+    public long getContentionRetries() { return retries.sum(); }
+}
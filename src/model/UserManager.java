@@ -1,103 +1,339 @@
 package model;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import logging.Log;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 
-public class UserManager {
+/**
+ * Keeps users in memory and persists every change as one record appended to
+ * a journal file. On startup the last snapshot is restored and only the
+ * journal records after it are replayed (the whole journal if there is no
+ * usable snapshot). The journal is compacted in the background once it
+ * holds more dead records than live users.
+ */
+public class UserManager implements Snapshottable {
+    private static final Log LOG = Log.get(UserManager.class);
     private static final String USERS_FILE = "data/users.txt";
-    private List<User> users;
+    private static final String JOURNAL_HEADER = "#users-journal v1";
+    private static final String ADD_RECORD = "+";
+    private static final String REMOVE_RECORD = "-";
+    // Don't bother compacting small journals
+    private static final int COMPACT_MIN_DEAD_RECORDS = 1000;
+    private static final String SNAPSHOT_SECTION = "users";
+    private static final Histogram LOGIN_TIME = MetricsRegistry.getDefault().histogram("users.login");
+    private static final Counter LOGIN_FAILURES = MetricsRegistry.getDefault().counter("users.loginFailures");
+
+    private final String usersFile;
+    private final SnapshotManager snapshots; // null when not snapshotting
+    // Username -> user, kept in registration order so the file layout is stable
+    private Map<String, User> users;
+    // Records currently in the journal; anything beyond users.size() is dead
+    private int journalRecords;
+    // Records appended while a compaction is writing its copy, null otherwise
+    private List<String> pendingRecords;
+    private ExecutorService compactor;
 
     public UserManager() {
-        users = new ArrayList<>();
+        this(USERS_FILE, SnapshotManager.getDefault());
+    }
+
+    public UserManager(String usersFile) {
+        this(usersFile, null);
+    }
+
+    /**
+     * @param snapshots restores the users from its last snapshot and keeps
+     *                  snapshotting them; null to always replay the full journal
+     */
+    public UserManager(String usersFile, SnapshotManager snapshots) {
+        this.usersFile = usersFile;
+        this.snapshots = snapshots;
+        users = new LinkedHashMap<>();
         loadUsers();
+        if (snapshots != null) {
+            snapshots.register(SNAPSHOT_SECTION, this);
+        }
     }
 
-    private void loadUsers() {
+    private synchronized void loadUsers() {
         users.clear();
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                User user = User.fromString(line);
-                if (user != null) {
-                    users.add(user);
+        journalRecords = 0;
+        long from = restoreSnapshot();
+        if (from >= 0) {
+            replayJournal(from);
+            return;
+        }
+        boolean legacyFormat = false;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(skipByteOrderMark(usersFile)))) {
+            String line = br.readLine();
+            while (line != null && line.trim().isEmpty()) {
+                line = br.readLine();
+            }
+            // Only a file that really starts with a "username,password" line
+            // is the old layout; anything else is never rewritten
+            legacyFormat = line != null && !line.equals(JOURNAL_HEADER)
+                    && !isJournalRecord(line) && User.fromString(line) != null;
+            if (legacyFormat) {
+                // Plain "username,password" lines from before the journal
+                for (; line != null; line = br.readLine()) {
+                    User user = User.fromString(line);
+                    if (user != null) {
+                        users.putIfAbsent(user.getUsername(), user);
+                    }
+                }
+            } else {
+                for (; line != null; line = br.readLine()) {
+                    if (line.trim().isEmpty() || line.equals(JOURNAL_HEADER)) continue;
+                    replayRecord(line);
+                    journalRecords++;
                 }
             }
         } catch (IOException e) {
             // File might not exist yet, which is fine for new installations
         }
+        if (legacyFormat) {
+            // One-off migration of the old file layout to the journal format
+            try {
+                rewriteJournal(new ArrayList<>(users.values()));
+                journalRecords = users.size();
+            } catch (IOException e) {
+                LOG.error("Failed to migrate {} to the journal format", usersFile, e);
+            }
+        }
     }
 
-    private void saveUsers() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(USERS_FILE))) {
-            for (User user : users) {
-                bw.write(user.toString() + "\n");
+    /**
+     * Loads the users saved in the last snapshot, if it still matches the
+     * journal.
+     *
+     * @return the journal offset to replay from, or -1 to replay it all
+     */
+    private long restoreSnapshot() {
+        if (snapshots == null) return -1;
+        ByteBuffer in = snapshots.restore(SNAPSHOT_SECTION);
+        if (in == null) return -1;
+        try {
+            long from = SnapshotManager.readLogPosition(in, Paths.get(usersFile));
+            if (from < 0) return -1;
+            journalRecords = in.getInt();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                String username = SnapshotManager.readString(in);
+                users.put(username, new User(username, SnapshotManager.readString(in)));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            return from;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable user snapshot: {}", e.getMessage());
+            users.clear();
+            journalRecords = 0;
+            return -1;
         }
     }
 
-    public boolean registerUser(String username, String password) {
-        // Check if username already exists
-        for (User user : users) {
-            if (user.getUsername().equals(username)) {
-                return false; // Username already exists
+    private void replayJournal(long from) {
+        try (FileInputStream in = new FileInputStream(usersFile)) {
+            in.getChannel().position(from);
+            BufferedReader br = new BufferedReader(new InputStreamReader(in));
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty() || line.equals(JOURNAL_HEADER)) continue;
+                replayRecord(line);
+                journalRecords++;
             }
+        } catch (IOException e) {
+            // Nothing written since the snapshot
         }
+    }
 
-        // Add new user
-        User newUser = new User(username, password);
-        users.add(newUser);
-        saveUsers();
-        return true;
+    /**
+     * Writes the live users, the journal record count and how far the
+     * journal reached.
+     */
+    @Override
+    public synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        SnapshotManager.writeLogPosition(out, Paths.get(usersFile), new File(usersFile).length());
+        out.writeInt(journalRecords);
+        out.writeInt(users.size());
+        for (User user : users.values()) {
+            SnapshotManager.writeString(out, user.getUsername());
+            SnapshotManager.writeString(out, user.getPassword());
+        }
     }
 
-    public User loginUser(String username, String password) {
-        for (User user : users) {
-            if (user.getUsername().equals(username) && user.getPassword().equals(password)) {
-                return user;
+    private void journalReplaced() {
+        if (snapshots != null) {
+            // The old snapshot points into the replaced journal
+            snapshots.requestSnapshot();
+        }
+    }
+
+    private void replayRecord(String record) {
+        String[] parts = record.split(",", 3);
+        if (parts[0].equals(ADD_RECORD) && parts.length == 3) {
+            users.putIfAbsent(parts[1], new User(parts[1], parts[2]));
+        } else if (parts[0].equals(REMOVE_RECORD) && parts.length >= 2) {
+            users.remove(parts[1]);
+        }
+    }
+
+    // Opens the file past a UTF-8 byte order mark, if it starts with one
+    private static InputStream skipByteOrderMark(String file) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        in.mark(3);
+        if (in.read() != 0xEF || in.read() != 0xBB || in.read() != 0xBF) {
+            in.reset();
+        }
+        return in;
+    }
+
+    private static boolean isJournalRecord(String line) {
+        return line.startsWith(ADD_RECORD + ",") || line.startsWith(REMOVE_RECORD + ",");
+    }
+
+    private static String addRecord(User user) {
+        return ADD_RECORD + "," + user.getUsername() + "," + user.getPassword();
+    }
+
+    private static String removeRecord(String username) {
+        return REMOVE_RECORD + "," + username;
+    }
+
+    private void appendRecord(String record) {
+        File file = new File(usersFile);
+        boolean newFile = file.length() == 0;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, true))) {
+            if (newFile) {
+                bw.write(JOURNAL_HEADER + "\n");
             }
+            bw.write(record + "\n");
+        } catch (IOException e) {
+            LOG.error("Failed to append to {}", usersFile, e);
+            return;
+        }
+        journalRecords++;
+        if (pendingRecords != null) {
+            pendingRecords.add(record);
+        }
+        int deadRecords = journalRecords - users.size();
+        if (pendingRecords == null && deadRecords >= COMPACT_MIN_DEAD_RECORDS && deadRecords > users.size()) {
+            startCompaction();
         }
-        return null; // Invalid credentials
     }
 
-    public boolean userExists(String username) {
-        for (User user : users) {
-            if (user.getUsername().equals(username)) {
-                return true;
+    private void startCompaction() {
+        pendingRecords = new ArrayList<>();
+        List<User> snapshot = new ArrayList<>(users.values());
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "users-journal-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        compactor.execute(() -> compact(snapshot));
+    }
+
+    private void compact(List<User> snapshot) {
+        Path tmp = Paths.get(usersFile + ".compact");
+        try {
+            writeJournal(tmp, snapshot);
+            synchronized (this) {
+                // Carry over anything appended while the copy was being written
+                try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardOpenOption.APPEND)) {
+                    for (String record : pendingRecords) {
+                        bw.write(record + "\n");
+                    }
+                }
+                Files.move(tmp, Paths.get(usersFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journalRecords = snapshot.size() + pendingRecords.size();
+                pendingRecords = null;
+                journalReplaced();
+            }
+        } catch (IOException e) {
+            LOG.error("Background compaction of {} failed", usersFile, e);
+            synchronized (this) {
+                pendingRecords = null;
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
             }
         }
-        return false;
     }
 
-    public boolean removeUser(String username) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getUsername().equals(username)) {
-                users.remove(i);
-                saveUsers();
-                return true;
+    private void rewriteJournal(List<User> live) throws IOException {
+        Path tmp = Paths.get(usersFile + ".compact");
+        writeJournal(tmp, live);
+        Files.move(tmp, Paths.get(usersFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalReplaced();
+    }
+
+    private static void writeJournal(Path path, List<User> live) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(path)) {
+            bw.write(JOURNAL_HEADER + "\n");
+            for (User user : live) {
+                bw.write(addRecord(user) + "\n");
             }
         }
-        return false;
     }
 
-    public static void performanceTest(int numUsers) {
-        UserManager userManager = new UserManager();
-        long startAdd = System.nanoTime();
-        for (int i = 0; i < numUsers; i++) {
-            userManager.registerUser("user" + i, "password" + i);
+    /**
+     * Rewrites the journal with only the live users, blocking until done.
+     */
+    public synchronized void compactJournal() {
+        if (pendingRecords != null) return; // a background compaction is already running
+        try {
+            rewriteJournal(new ArrayList<>(users.values()));
+            journalRecords = users.size();
+        } catch (IOException e) {
+            LOG.error("Failed to compact {}", usersFile, e);
+        }
+    }
+
+    public synchronized boolean registerUser(String username, String password) {
+        if (users.containsKey(username)) {
+            return false; // Username already exists
         }
-        long endAdd = System.nanoTime();
-        long addTime = endAdd - startAdd;
 
-        long startRemove = System.nanoTime();
-        for (int i = 0; i < numUsers; i++) {
-            userManager.removeUser("user" + i);
+        // Add new user
+        User newUser = new User(username, password);
+        users.put(username, newUser);
+        appendRecord(addRecord(newUser));
+        return true;
+    }
+
+    public User loginUser(String username, String password) {
+        long start = System.nanoTime();
+        User user = checkCredentials(username, password);
+        LOGIN_TIME.recordSince(start); // including any wait for the lock
+        if (user == null) LOGIN_FAILURES.increment();
+        return user;
+    }
+
+    private synchronized User checkCredentials(String username, String password) {
+        User user = users.get(username);
+        if (user != null && user.getPassword().equals(password)) {
+            return user;
         }
-        long endRemove = System.nanoTime();
-        long removeTime = endRemove - startRemove;
+        return null; // Invalid credentials
+    }
 
-        System.out.println("Add " + numUsers + " users: " + addTime + " ns");
-        System.out.println("Remove " + numUsers + " users: " + removeTime + " ns");
+    public synchronized boolean userExists(String username) {
+        return users.containsKey(username);
+    }
+
+    public synchronized boolean removeUser(String username) {
+        if (users.remove(username) != null) {
+            appendRecord(removeRecord(username));
+            return true;
+        }
+        return false;
     }
 }
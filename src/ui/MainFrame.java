@@ -1,25 +1,49 @@
 package ui;
 
 import java.awt.*;
-import java.io.*;
 import java.util.*;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import model.Cart;
 import model.CartItem;
 import model.Order;
+import model.OrderFulfillmentService;
 import model.OrderManager;
 import model.OrderQueue;
+import model.Money;
+import model.OutOfStockException;
 import model.Product;
+import model.ProductCatalog;
+import model.ProductSortIndex;
+import model.StockEngine;
 import model.User;
 
 public class MainFrame extends JFrame {
-    private java.util.List<Product> products = new ArrayList<>();
+    private static final int SEARCH_RESULTS = 500;
+    private static final int PAGE_SIZE = 1000;
+    private static final Histogram CHECKOUT_RESERVE = MetricsRegistry.getDefault().histogram("checkout.reserve");
+    private static final Counter CHECKOUT_OUT_OF_STOCK = MetricsRegistry.getDefault().counter("checkout.outOfStock");
+    private static final Counter CHECKOUT_ORDERS = MetricsRegistry.getDefault().counter("checkout.orders");
+
+    private final ProductCatalog catalog = ProductCatalog.getDefault();
     private JTable productTable;
-    private DefaultTableModel productTableModel;
+    private ProductTableModel productTableModel;
+    private JTextField searchField;
+    private JTextField maxPriceField;
+    private JCheckBox inStockBox;
+    private JComboBox<ProductSortIndex.Sort> sortBox;
+    private JButton prevPageBtn;
+    private JButton nextPageBtn;
+    private int pageOffset;
     private Cart cart = new Cart();
     private OrderQueue orderQueue = new OrderQueue();
     private OrderManager orderManager;
+    private OrderFulfillmentService fulfillment;
     private User currentUser;
     private JButton viewCartBtn;
 
@@ -30,22 +54,19 @@ public class MainFrame extends JFrame {
     public MainFrame(User user) {
         this.currentUser = user;
         this.orderManager = new OrderManager();
+        catalog.followOrders(orderManager);
+        startFulfillment();
         setTitle("E-Commerce Cart System" + (user != null ? " - Welcome " + user.getUsername() : ""));
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         setLayout(new BorderLayout());
 
-        // Load products from file
-        loadProducts();
-
         // Product Table
-        String[] columns = {"ID", "Name", "Price", "Stock"};
-        productTableModel = new DefaultTableModel(columns, 0) {
-            public boolean isCellEditable(int row, int column) { return false; }
-        };
+        productTableModel = new ProductTableModel(catalog);
         productTable = new JTable(productTableModel);
-        refreshProductTable();
+        // The table fills in once the catalogue has loaded in the background
+        loadProducts();
 
         JScrollPane scrollPane = new JScrollPane(productTable);
 
@@ -71,46 +92,137 @@ public class MainFrame extends JFrame {
         bottomPanel.add(orderHistoryBtn);
         bottomPanel.add(logoutBtn);
 
-        add(new JLabel("Product List", SwingConstants.CENTER), BorderLayout.NORTH);
+        add(createSearchPanel(), BorderLayout.NORTH);
         add(scrollPane, BorderLayout.CENTER);
         add(bottomPanel, BorderLayout.SOUTH);
     }
 
-    private void loadProducts() {
-        products.clear();
-        try (BufferedReader br = new BufferedReader(new FileReader("data/products.txt"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                Product p = Product.fromString(line);
-                if (p != null) products.add(p);
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to load products.", "Error", JOptionPane.ERROR_MESSAGE);
+    // Type-ahead search and filters; the table shows the matches as the
+    // user types
+    private JPanel createSearchPanel() {
+        searchField = new JTextField(20);
+        maxPriceField = new JTextField(6);
+        javax.swing.Timer debounce = new javax.swing.Timer(150, e -> applyFilters());
+        debounce.setRepeats(false);
+        DocumentListener typing = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { debounce.restart(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { debounce.restart(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { debounce.restart(); }
+        };
+        searchField.getDocument().addDocumentListener(typing);
+        maxPriceField.getDocument().addDocumentListener(typing);
+
+        inStockBox = new JCheckBox("In stock only");
+        inStockBox.addActionListener(e -> applyFilters());
+        sortBox = new JComboBox<>(ProductSortIndex.Sort.values());
+        sortBox.addActionListener(e -> applyFilters());
+
+        prevPageBtn = new JButton("◀");
+        prevPageBtn.addActionListener(e -> showPage(pageOffset - PAGE_SIZE));
+        nextPageBtn = new JButton("▶");
+        nextPageBtn.addActionListener(e -> showPage(pageOffset + PAGE_SIZE));
+
+        JPanel searchRow = new JPanel();
+        searchRow.add(new JLabel("Search:"));
+        searchRow.add(searchField);
+        searchRow.add(new JLabel("Max price:"));
+        searchRow.add(maxPriceField);
+        searchRow.add(inStockBox);
+        searchRow.add(sortBox);
+        searchRow.add(prevPageBtn);
+        searchRow.add(nextPageBtn);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JLabel("Product List", SwingConstants.CENTER), BorderLayout.NORTH);
+        panel.add(searchRow, BorderLayout.CENTER);
+        updatePageButtons(0);
+        return panel;
+    }
+
+    private void applyFilters() {
+        showPage(0);
+    }
+
+    private void showPage(int offset) {
+        pageOffset = Math.max(0, offset);
+        String query = searchField.getText().trim();
+        long maxCents = parseMaxPrice();
+        boolean inStockOnly = inStockBox.isSelected();
+        ProductSortIndex.Sort sort = (ProductSortIndex.Sort) sortBox.getSelectedItem();
+
+        int[] rows;
+        if (!query.isEmpty()) {
+            rows = catalog.search(query, maxCents, inStockOnly, sort, SEARCH_RESULTS);
+            pageOffset = 0;
+        } else if (maxCents == Long.MAX_VALUE && !inStockOnly && sort == ProductSortIndex.Sort.CATALOGUE) {
+            rows = null;
+            pageOffset = 0;
+        } else {
+            rows = catalog.query(Long.MIN_VALUE, maxCents, inStockOnly, sort, pageOffset, PAGE_SIZE);
         }
+        productTableModel.showRows(rows);
+        updatePageButtons(rows != null && query.isEmpty() ? rows.length : 0);
+    }
+
+    private void updatePageButtons(int shown) {
+        prevPageBtn.setEnabled(pageOffset > 0);
+        nextPageBtn.setEnabled(shown == PAGE_SIZE);
     }
 
-    private void refreshProductTable() {
-        productTableModel.setRowCount(0);
-        for (Product p : products) {
-            productTableModel.addRow(new Object[]{p.getId(), p.getName(), p.getPrice(), p.getStock()});
+    // Blank or unreadable means no limit
+    private long parseMaxPrice() {
+        String text = maxPriceField.getText().trim();
+        if (text.isEmpty()) return Long.MAX_VALUE;
+        try {
+            return Money.parse(text);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
         }
     }
 
+    private void startFulfillment() {
+        fulfillment = new OrderFulfillmentService(orderQueue, Arrays.asList(
+                OrderFulfillmentService.persistTo(orderManager),
+                OrderFulfillmentService.commitStock(StockEngine.getDefault())));
+        MetricsRegistry.getDefault().gauge("orders.queueDepth", orderQueue::size);
+        fulfillment.start(Integer.getInteger("fulfillment.workers", 4),
+                !"false".equalsIgnoreCase(System.getProperty("fulfillment.virtualThreads")));
+        // Let queued orders finish before the window closes and the JVM exits
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                shutdownStores();
+            }
+        });
+    }
+
+    // Finishes queued orders, then takes a final snapshot of everything and
+    // writes out the metrics
+    private void shutdownStores() {
+        fulfillment.shutdown();
+        orderManager.close();
+        productTableModel.dispose();
+        MetricsRegistry.getDefault().dump();
+    }
+
+    private void loadProducts() {
+        catalog.load().exceptionally(e -> {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "Failed to load products.", "Error", JOptionPane.ERROR_MESSAGE));
+            return null;
+        });
+    }
+
     private void addSelectedProductToCart() {
         int row = productTable.getSelectedRow();
         if (row == -1) {
             JOptionPane.showMessageDialog(this, "Please select a product.");
             return;
         }
-        String id = (String) productTableModel.getValueAt(row, 0);
-        Product selected = null;
-        for (Product p : products) {
-            if (p.getId().equals(id)) {
-                selected = p;
-                break;
-            }
-        }
-        if (selected == null) return;
+        Product selected = productTableModel.getProduct(row);
         String qtyStr = JOptionPane.showInputDialog(this, "Enter quantity:", "1");
         if (qtyStr == null) return;
         int qty;
@@ -129,13 +241,13 @@ public class MainFrame extends JFrame {
 
     private void showCartDialog() {
         // Build cart table data
-        java.util.List<CartItem> cartItems = new ArrayList<>();
+        java.util.List<CartItem> cartItems = new ArrayList<>(cart.getLineCount());
         CartItem current = cart.getHead();
         while (current != null) {
             cartItems.add(current);
             current = current.getNext();
         }
-        if (cartItems.isEmpty()) {
+        if (cart.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Cart is empty.", "Cart", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
@@ -145,11 +257,11 @@ public class MainFrame extends JFrame {
         Object[][] data = new Object[cartItems.size()][4];
         for (int i = 0; i < cartItems.size(); i++) {
             CartItem item = cartItems.get(i);
-            double subtotal = item.getQuantity() * item.getProduct().getPrice();
-            data[i][0] = item.getProduct().getName();
+            long subtotal = item.getQuantity() * item.getPriceCents();
+            data[i][0] = item.getProductName();
             data[i][1] = item.getQuantity();
-            data[i][2] = String.format("$%.2f", item.getProduct().getPrice());
-            data[i][3] = String.format("$%.2f", subtotal);
+            data[i][2] = "$" + Money.format(item.getPriceCents());
+            data[i][3] = "$" + Money.format(subtotal);
         }
         
         DefaultTableModel cartModel = new DefaultTableModel(data, columns) {
@@ -184,14 +296,8 @@ public class MainFrame extends JFrame {
                 return;
             }
             String prodName = (String) cartModel.getValueAt(row, 0);
-            String prodId = null;
-            for (CartItem item : cartItems) {
-                if (item.getProduct().getName().equals(prodName)) {
-                    prodId = item.getProduct().getId();
-                    break;
-                }
-            }
-            if (prodId != null) {
+            String prodId = cartItems.get(row).getProductId();
+            if (cart.contains(prodId)) {
                 int confirm = JOptionPane.showConfirmDialog(this, 
                     "Remove " + prodName + " from cart?", "Confirm Removal", 
                     JOptionPane.YES_NO_OPTION);
@@ -212,13 +318,7 @@ public class MainFrame extends JFrame {
                 return;
             }
             String prodName = (String) cartModel.getValueAt(row, 0);
-            CartItem selectedItem = null;
-            for (CartItem item : cartItems) {
-                if (item.getProduct().getName().equals(prodName)) {
-                    selectedItem = item;
-                    break;
-                }
-            }
+            CartItem selectedItem = cart.getItem(cartItems.get(row).getProductId());
             if (selectedItem != null) {
                 String newQtyStr = JOptionPane.showInputDialog(this, 
                     "Enter new quantity for " + prodName + " (current: " + selectedItem.getQuantity() + "):", 
@@ -235,9 +335,7 @@ public class MainFrame extends JFrame {
                             return;
                         }
                         
-                        // Remove old item and add new one with updated quantity
-                        cart.removeItem(selectedItem.getProduct().getId());
-                        cart.addItem(selectedItem.getProduct(), newQty);
+                        cart.setQuantity(selectedItem.getProductId(), newQty);
                         updateCartButtonText();
                         
                         ((JDialog) SwingUtilities.getWindowAncestor(cartTable)).dispose();
@@ -251,7 +349,7 @@ public class MainFrame extends JFrame {
 
         // Enhanced purchase functionality
         purchaseBtn.addActionListener(e -> {
-            if (cartItems.isEmpty()) {
+            if (cart.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "Cart is empty.", "Empty Cart", JOptionPane.WARNING_MESSAGE);
                 return;
             }
@@ -265,8 +363,7 @@ public class MainFrame extends JFrame {
         btnPanel.add(purchaseBtn);
 
         // Enhanced total display
-        double total = cart.calculateTotal();
-        JLabel totalLabel = new JLabel("Total: $" + String.format("%.2f", total), SwingConstants.CENTER);
+        JLabel totalLabel = new JLabel("Total: $" + Money.format(cart.getTotalCents()), SwingConstants.CENTER);
         totalLabel.setFont(totalLabel.getFont().deriveFont(Font.BOLD, 16f));
         totalLabel.setForeground(new Color(34, 139, 34));
         totalLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
@@ -289,7 +386,7 @@ public class MainFrame extends JFrame {
         summaryPanel.setBorder(BorderFactory.createTitledBorder("Order Summary"));
         
         // Build summary table
-        java.util.List<CartItem> cartItems = new ArrayList<>();
+        java.util.List<CartItem> cartItems = new ArrayList<>(cart.getLineCount());
         CartItem current = cart.getHead();
         while (current != null) {
             cartItems.add(current);
@@ -300,11 +397,11 @@ public class MainFrame extends JFrame {
         Object[][] data = new Object[cartItems.size()][4];
         for (int i = 0; i < cartItems.size(); i++) {
             CartItem item = cartItems.get(i);
-            double subtotal = item.getQuantity() * item.getProduct().getPrice();
-            data[i][0] = item.getProduct().getName();
+            long subtotal = item.getQuantity() * item.getPriceCents();
+            data[i][0] = item.getProductName();
             data[i][1] = item.getQuantity();
-            data[i][2] = String.format("$%.2f", item.getProduct().getPrice());
-            data[i][3] = String.format("$%.2f", subtotal);
+            data[i][2] = "$" + Money.format(item.getPriceCents());
+            data[i][3] = "$" + Money.format(subtotal);
         }
         
         DefaultTableModel summaryModel = new DefaultTableModel(data, columns) {
@@ -315,8 +412,8 @@ public class MainFrame extends JFrame {
         JScrollPane scrollPane = new JScrollPane(summaryTable);
         
         // Total display
-        double total = cart.calculateTotal();
-        JLabel totalLabel = new JLabel("Total Amount: $" + String.format("%.2f", total), SwingConstants.CENTER);
+        long total = cart.getTotalCents();
+        JLabel totalLabel = new JLabel("Total Amount: $" + Money.format(total), SwingConstants.CENTER);
         totalLabel.setFont(totalLabel.getFont().deriveFont(Font.BOLD, 18f));
         totalLabel.setForeground(new Color(34, 139, 34));
         totalLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
@@ -377,9 +474,45 @@ public class MainFrame extends JFrame {
         
         // Button actions
         cancelBtn.addActionListener(e -> paymentDialog.dispose());
+
+        // The confirmed payment still waiting to go through, if any. Closing
+        // the dialog before it does cancels the payment and frees the stock.
+        javax.swing.Timer[] pendingPayment = new javax.swing.Timer[1];
+        StockEngine.Reservation[] pendingReservation = new StockEngine.Reservation[1];
+        paymentDialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                if (pendingPayment[0] != null) {
+                    pendingPayment[0].stop();
+                    pendingPayment[0] = null;
+                    pendingReservation[0].release();
+                }
+            }
+        });
         
         confirmBtn.addActionListener(e -> {
+            if (pendingPayment[0] != null) return;
             String selectedMethod = (String) paymentCombo.getSelectedItem();
+
+            // Hold the stock now so nobody else can buy it during payment
+            StockEngine.Reservation reservation;
+            long reserveStart = System.nanoTime();
+            try {
+                reservation = StockEngine.getDefault().reserve(cart);
+            } catch (OutOfStockException ex) {
+                CHECKOUT_RESERVE.recordSince(reserveStart);
+                CHECKOUT_OUT_OF_STOCK.increment();
+                JOptionPane.showMessageDialog(paymentDialog,
+                    "Sorry, only " + ex.getAvailable() + " of " + ex.getProduct().getName() + " left in stock.",
+                    "Out of Stock",
+                    JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            CHECKOUT_RESERVE.recordSince(reserveStart);
+            // One payment per dialog: no second reserve, and no cancelling
+            // once the payment is under way
+            confirmBtn.setEnabled(false);
+            cancelBtn.setEnabled(false);
             
             // Show processing message
             JOptionPane.showMessageDialog(paymentDialog, 
@@ -389,10 +522,21 @@ public class MainFrame extends JFrame {
             
             // Simulate payment processing delay
             javax.swing.Timer timer = new javax.swing.Timer(2000, evt -> {
-                // Create and save the order
+                if (pendingPayment[0] == null) return; // the dialog was closed
+                pendingPayment[0] = null;
+                // Hand the order to the fulfilment workers
                 Order order = new Order(currentUser.getUsername(), cart, total);
-                orderQueue.placeOrder(order);
-                orderManager.saveOrder(order);
+                try {
+                    fulfillment.submit(order, reservation);
+                } catch (IllegalStateException ex) {
+                    JOptionPane.showMessageDialog(paymentDialog,
+                        "The order could not be placed because the shop is closing.",
+                        "Payment Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                    paymentDialog.dispose();
+                    return;
+                }
+                CHECKOUT_ORDERS.increment();
                 
                 // Clear the cart
                 this.cart = new Cart();
@@ -408,6 +552,8 @@ public class MainFrame extends JFrame {
                 paymentDialog.dispose();
             });
             timer.setRepeats(false);
+            pendingPayment[0] = timer;
+            pendingReservation[0] = reservation;
             timer.start();
         });
         
@@ -438,8 +584,8 @@ public class MainFrame extends JFrame {
             Order order = userOrders.get(i);
             data[i][0] = order.getOrderId();
             data[i][1] = order.getTimestamp();
-            data[i][2] = String.format("$%.2f", order.getTotal());
-            data[i][3] = getCartItemCount(order.getCart());
+            data[i][2] = "$" + Money.format(order.getTotalCents());
+            data[i][3] = order.getItemCount();
         }
         
         DefaultTableModel historyModel = new DefaultTableModel(data, columns) {
@@ -474,28 +620,30 @@ public class MainFrame extends JFrame {
     }
 
     private int getCartItemCount(Cart cart) {
-        int count = 0;
-        CartItem current = cart.getHead();
-        while (current != null) {
-            count += current.getQuantity();
-            current = current.getNext();
-        }
-        return count;
+        return cart.getTotalUnits();
     }
 
     private void showOrderDetailsDialog(Order order) {
         String[] columns = {"Product ID", "Name", "Quantity", "Price", "Subtotal"};
         java.util.List<Object[]> dataList = new ArrayList<>();
         
-        CartItem current = order.getCart().getHead();
+        Cart cart;
+        try {
+            cart = order.getCart();
+        } catch (java.io.UncheckedIOException ex) {
+            JOptionPane.showMessageDialog(this, "Failed to load the items of order " + order.getOrderId() + ".",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        CartItem current = cart.getHead();
         while (current != null) {
-            double subtotal = current.getQuantity() * current.getProduct().getPrice();
+            long subtotal = current.getQuantity() * current.getPriceCents();
             dataList.add(new Object[]{
-                current.getProduct().getId(),
-                current.getProduct().getName(),
+                current.getProductId(),
+                current.getProductName(),
                 current.getQuantity(),
-                String.format("$%.2f", current.getProduct().getPrice()),
-                String.format("$%.2f", subtotal)
+                "$" + Money.format(current.getPriceCents()),
+                "$" + Money.format(subtotal)
             });
             current = current.getNext();
         }
@@ -509,7 +657,7 @@ public class MainFrame extends JFrame {
 
         JPanel panel = new JPanel(new BorderLayout());
         panel.add(scrollPane, BorderLayout.CENTER);
-        panel.add(new JLabel("Order Total: $" + String.format("%.2f", order.getTotal()), SwingConstants.CENTER), BorderLayout.NORTH);
+        panel.add(new JLabel("Order Total: $" + Money.format(order.getTotalCents()), SwingConstants.CENTER), BorderLayout.NORTH);
 
         JDialog dialog = new JDialog(this, "Order Details - " + order.getOrderId(), true);
         dialog.setContentPane(panel);
@@ -518,31 +666,13 @@ public class MainFrame extends JFrame {
         dialog.setVisible(true);
     }
 
-    private void processNextOrder() {
-        Order order = orderQueue.processNextOrder();
-        if (order != null) {
-            // Process the order
-            System.out.println("Processing order:");
-            System.out.println("Order ID: " + order.getTimestamp());
-            System.out.println("Total: $" + String.format("%.2f", order.getTotal()));
-            CartItem current = order.getCart().getHead();
-            while (current != null) {
-                System.out.println(current.getProduct().getName() + " x " + current.getQuantity());
-                current = current.getNext();
-            }
-            // Order already saved by OrderManager when placed
-            JOptionPane.showMessageDialog(this, "Order processed successfully.", "Order Processed", JOptionPane.INFORMATION_MESSAGE);
-        } else {
-            JOptionPane.showMessageDialog(this, "No orders in queue.", "No Orders", JOptionPane.INFORMATION_MESSAGE);
-        }
-    }
-
     private void logout() {
         int choice = JOptionPane.showConfirmDialog(this, 
             "Are you sure you want to logout?", "Logout", 
             JOptionPane.YES_NO_OPTION);
         
         if (choice == JOptionPane.YES_OPTION) {
+            shutdownStores();
             this.dispose();
             // Create new login frame
             SwingUtilities.invokeLater(() -> {
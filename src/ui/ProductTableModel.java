@@ -0,0 +1,141 @@
+package ui;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import model.Money;
+import model.Product;
+import model.ProductCatalog;
+
+/**
+ * Product table backed directly by the catalogue. Cells are read from the
+ * catalogue when the table paints them, so only visible rows cost anything,
+ * and stock changes repaint just the rows they touch.
+ *
+ * Changes can arrive from any thread; they are collected and handed to the
+ * table in one batch on the event dispatch thread.
+ *
+ * The table can be narrowed to a chosen list of catalogue rows, such as
+ * search results, with {@link #showRows(int[])}.
+ */
+class ProductTableModel extends AbstractTableModel implements ProductCatalog.Listener {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMNS = {"ID", "Name", "Price", "Stock"};
+    private static final Class<?>[] COLUMN_TYPES = {String.class, String.class, String.class, Integer.class};
+
+    private final ProductCatalog catalog;
+    // Rows changed since the last batch was sent to the table
+    private final BitSet dirtyRows = new BitSet();
+    private boolean flushScheduled;
+    // Row count the table currently knows about; only touched on the EDT
+    private int rowCount;
+    // Catalogue rows shown, in table order, or null for the whole
+    // catalogue; only touched on the EDT
+    private int[] shownRows;
+    private Map<Integer, Integer> tableRowOf;
+
+    ProductTableModel(ProductCatalog catalog) {
+        this.catalog = catalog;
+        // Listen first so a load finishing in between isn't missed
+        catalog.addListener(this);
+        this.rowCount = catalog.size();
+    }
+
+    /** Stops listening to the catalogue. */
+    void dispose() {
+        catalog.removeListener(this);
+    }
+
+    Product getProduct(int row) {
+        return catalog.get(catalogRow(row));
+    }
+
+    /**
+     * Shows just these catalogue rows, in this order, or the whole
+     * catalogue for null. Call on the event dispatch thread.
+     */
+    void showRows(int[] rows) {
+        shownRows = rows;
+        tableRowOf = null;
+        if (rows != null) {
+            tableRowOf = new HashMap<>(rows.length * 4 / 3 + 1);
+            for (int i = 0; i < rows.length; i++) {
+                tableRowOf.put(rows[i], i);
+            }
+        }
+        rowCount = rows != null ? rows.length : catalog.size();
+        fireTableDataChanged();
+    }
+
+    private int catalogRow(int row) {
+        return shownRows != null ? shownRows[row] : row;
+    }
+
+    @Override
+    public int getRowCount() { return rowCount; }
+
+    @Override
+    public int getColumnCount() { return COLUMNS.length; }
+
+    @Override
+    public String getColumnName(int column) { return COLUMNS[column]; }
+
+    @Override
+    public Class<?> getColumnClass(int column) { return COLUMN_TYPES[column]; }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Product p = catalog.get(catalogRow(row));
+        switch (column) {
+            case 0: return p.getId();
+            case 1: return p.getName();
+            case 2: return Money.format(p.getPriceCents());
+            default: return p.getStock();
+        }
+    }
+
+    @Override
+    public void catalogLoaded() {
+        SwingUtilities.invokeLater(() -> {
+            synchronized (dirtyRows) {
+                dirtyRows.clear();
+            }
+            showRows(null);
+        });
+    }
+
+    @Override
+    public void productChanged(int row) {
+        synchronized (dirtyRows) {
+            dirtyRows.set(row);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        BitSet rows;
+        synchronized (dirtyRows) {
+            rows = (BitSet) dirtyRows.clone();
+            dirtyRows.clear();
+            flushScheduled = false;
+        }
+        if (shownRows != null) {
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                Integer shown = tableRowOf.get(row);
+                if (shown != null) fireTableRowsUpdated(shown, shown);
+            }
+            return;
+        }
+        // One event per run of adjacent rows
+        for (int first = rows.nextSetBit(0); first >= 0 && first < rowCount; ) {
+            int end = Math.min(rows.nextClearBit(first), rowCount);
+            fireTableRowsUpdated(first, end - 1);
+            first = rows.nextSetBit(end);
+        }
+    }
+}